@@ -8,7 +8,10 @@ import nachos.threads.Semaphore;
 
 import java.util.Vector;
 import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
 
 /**
  * A bank of elevators.
@@ -104,8 +107,7 @@ public final class ElevatorBank implements Runnable {
 	Lib.assertTrue(!simulationStarted);
 	simulationStarted = true;
 	
-	riders = new RiderState[numRiders];
-	ridersVector.toArray(riders);
+	indexRiders();
 
 	if (enableGui) {
 	    privilege.doPrivileged(new Runnable() {
@@ -128,6 +130,26 @@ public final class ElevatorBank implements Runnable {
 	simulationStarted = false;
     }
 
+    /**
+     * Build the per-floor index of waiting riders. Riders inside an elevator
+     * are indexed by <tt>ElevatorState.riders</tt>, so together these let
+     * <tt>postRiderEvent()</tt> find the riders an event concerns without
+     * scanning every rider.
+     */
+    private void indexRiders() {
+	riders = new RiderState[numRiders];
+	ridersVector.toArray(riders);
+
+	ridersOnFloor = new Vector<LinkedHashSet<RiderState>>(numFloors);
+	for (int floor=0; floor<numFloors; floor++)
+	    ridersOnFloor.addElement(new LinkedHashSet<RiderState>());
+
+	for (int i=0; i<numRiders; i++) {
+	    riders[i].index = i;
+	    ridersOnFloor.elementAt(riders[i].floor).add(riders[i]);
+	}
+    }
+
     private void initGui() {
 	int[] numRidersPerFloor = new int[numFloors];
 	for (int floor=0; floor<numFloors; floor++)
@@ -140,13 +162,80 @@ public final class ElevatorBank implements Runnable {
     }	
 
     /**
-     * Tests whether this module is working.
+     * Tests whether this module is working, then measures how dispatching
+     * rider events scales.
      */
     public static void selfTest() {
 	new ElevatorTest().run();
+	dispatchBenchmark();
+    }
+
+    /**
+     * Measure how the cost of dispatching a rider event scales with the
+     * number of riders, floors and elevators. Riders are spread evenly over
+     * the floors and no simulation is run, so only dispatch is timed. With
+     * indexed dispatch the cost per event follows the number of riders
+     * touched, not the total number of riders.
+     */
+    public static void dispatchBenchmark() {
+	ElevatorBank bank = Machine.bank();
+	Lib.assertTrue(bank != null);
+
+	int[][] configs = {
+	    // riders, floors, elevators
+	    {    100,    10,  1 },
+	    {   1000,    10,  1 },
+	    {   1000,   100,  4 },
+	    {  10000,  1000, 16 },
+	    { 100000, 10000, 64 },
+	};
+	int numEvents = 2000;
+
+	System.out.println("ElevatorBank dispatch benchmark (" + numEvents +
+			   " events each):");
+	
+	for (int c=0; c<configs.length; c++) {
+	    int numRiders = configs[c][0];
+	    int numFloors = configs[c][1];
+	    int numElevators = configs[c][2];
+
+	    bank.init(numElevators, numFloors, null);
+	    for (int i=0; i<numRiders; i++)
+		bank.addRider(null, i%numFloors, new int[0]);
+	    bank.indexRiders();
+
+	    long touched = 0;
+	    long start = System.nanoTime();
+	    for (int i=0; i<numEvents; i++) {
+		int floor = (i*7) % numFloors;
+		touched += bank.postRiderEvent(RiderEvent.eventDoorsOpened,
+					       floor, i%numElevators);
+	    }
+	    long nanos = System.nanoTime() - start;
+
+	    System.out.println("\triders=" + numRiders +
+			       " floors=" + numFloors +
+			       " elevators=" + numElevators +
+			       ": " + (nanos/numEvents) + " ns/event, " +
+			       (touched/numEvents) + " riders/event, " +
+			       (touched == 0 ? 0 : nanos/touched) +
+			       " ns/rider");
+
+	    // discard the queued events, and let the rider interrupts (which
+	    // have no handler) fire so they do not pile up across runs
+	    for (int i=0; i<numRiders; i++)
+		bank.riders[i].events.clear();
+	    KThread.yield();
+	}
     }
 
-    void postRiderEvent(int event, int floor, int elevator) {
+    /**
+     * Deliver an event to every rider inside the specified elevator and every
+     * rider waiting on the specified floor, in rider order.
+     *
+     * @return	the number of riders the event was delivered to.
+     */
+    int postRiderEvent(int event, int floor, int elevator) {
 	int direction = dirNeither;
 	if (elevator != -1) {
 	    Lib.assertTrue(elevator >= 0 && elevator < numElevators);
@@ -154,14 +243,18 @@ public final class ElevatorBank implements Runnable {
 	}
 
 	RiderEvent e = new RiderEvent(event, floor, elevator, direction);
-	for (int i=0; i<numRiders; i++) {
-	    RiderState rider = riders[i];
-	    if ((rider.inElevator && rider.elevator == e.elevator) ||
-		(!rider.inElevator && rider.floor == e.floor)) {
-		rider.events.add(e);
-		rider.schedule(1);
-	    }
-	}
+
+	Vector<RiderState> targets =
+	    new Vector<RiderState>(ridersOnFloor.elementAt(floor));
+	if (elevator != -1)
+	    targets.addAll(elevators[elevator].riders);
+
+	// deliver in the same order as a scan over every rider would
+	Collections.sort(targets, riderOrder);
+	for (RiderState rider : targets)
+	    rider.post(e);
+
+	return targets.size();
     }
 
     private class ElevatorManager implements ElevatorControls {
@@ -519,6 +612,8 @@ public final class ElevatorBank implements Runnable {
 	    if (!elevators[elevator].enter(this, floor))
 		return false;
 
+	    ridersOnFloor.elementAt(floor).remove(this);
+
 	    if (gui != null)
 		gui.enterElevator(floor, elevator);
 
@@ -550,6 +645,7 @@ public final class ElevatorBank implements Runnable {
 		return false;
 
 	    inElevator = false;
+	    ridersOnFloor.elementAt(floor).add(this);
 	    floors.add(new Integer(floor));
 
 	    if (gui != null)
@@ -576,6 +672,11 @@ public final class ElevatorBank implements Runnable {
 	    privilege.interrupt.schedule(when, "rider", interrupt);
 	}
 
+	void post(RiderEvent e) {
+	    events.add(e);
+	    schedule(1);
+	}
+
 	void interrupt() {
 	    if (!finished && !events.isEmpty() && handler != null)
 		handler.run();
@@ -597,7 +698,7 @@ public final class ElevatorBank implements Runnable {
 
     	RiderInterface rider;
 	boolean inElevator = false, finished = false;
-	int floor, elevator;
+	int floor, elevator, index;
 	int[] stops;
 	Runnable interrupt, handler = null;
 	LinkedList<RiderEvent> events = new LinkedList<RiderEvent>();
@@ -613,6 +714,15 @@ public final class ElevatorBank implements Runnable {
     private int numRiders;
     private Vector<RiderControls> ridersVector;
     private RiderState[] riders;
+    /** The riders waiting on each floor, i.e. not inside an elevator. */
+    private Vector<LinkedHashSet<RiderState>> ridersOnFloor;
+
+    private static final Comparator<RiderState> riderOrder =
+	new Comparator<RiderState>() {
+	    public int compare(RiderState a, RiderState b) {
+		return a.index - b.index;
+	    }
+	};
     
     private boolean simulationStarted, enableGui;
     private Privilege privilege;
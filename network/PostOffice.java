@@ -3,6 +3,8 @@ package nachos.network;
 import nachos.machine.*;
 import nachos.threads.*;
 
+import java.util.Collection;
+
 /**
  * A collection of message queues, one for each local port. A
  * <tt>PostOffice</tt> interacts directly with the network hardware. Because
@@ -14,6 +16,12 @@ import nachos.threads.*;
  * from the network and to place them in the appropriate queues. This cannot
  * be done in the receive interrupt handler because each queue (implemented
  * with a <tt>SynchList</tt>) is protected by a lock.
+ *
+ * <p>
+ * Each mailbox holds at most <tt>mailboxCapacity</tt> messages. Mail arriving
+ * at a full mailbox is dropped, just as the network itself may drop packets,
+ * so a slow receiver cannot make the post office buffer without limit or
+ * stall delivery to the other ports.
  */
 public class PostOffice {
     /**
@@ -28,7 +36,7 @@ public class PostOffice {
 
 	queues = new SynchList[MailMessage.portLimit];
 	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	    queues[i] = new SynchList(mailboxCapacity);
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -66,6 +74,46 @@ public class PostOffice {
 	return mail;
     }
 
+    /**
+     * Retrieve a message on the specified port if one is waiting, without
+     * blocking.
+     *
+     * @param	port	the port to check for mail.
+     *
+     * @return	the message received, or <tt>null</tt> if there is none.
+     */
+    public MailMessage tryReceive(int port) {
+	Lib.assertTrue(port >= 0 && port < queues.length);
+
+	return (MailMessage) queues[port].tryRemoveFirst();
+    }
+
+    /**
+     * Retrieve a batch of messages on the specified port. Waits until at
+     * least one message is available, then takes up to <i>max</i> messages
+     * in arrival order with a single acquisition of the mailbox lock.
+     *
+     * @param	port	the port on which to wait for mail.
+     * @param	mail	the collection to add the received messages to.
+     * @param	max	the maximum number of messages to take. Must be
+     *			positive.
+     *
+     * @return	the number of messages received.
+     */
+    public int receive(int port, Collection<Object> mail, int max) {
+	Lib.assertTrue(port >= 0 && port < queues.length && max > 0);
+
+	int n = queues[port].drainTo(mail, max);
+	if (n == 0) {
+	    mail.add(queues[port].removeFirst());
+	    n = 1 + queues[port].drainTo(mail, max-1);
+	}
+
+	Lib.debug(dbgNet, "got " + n + " messages on port " + port);
+
+	return n;
+    }
+
     /**
      * Wait for incoming messages, and then put them in the correct mailbox.
      */
@@ -88,8 +136,10 @@ public class PostOffice {
 		System.out.println("delivering mail to port " + mail.dstPort
 				   + ": " + mail);
 
-	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	    // atomically add message to the mailbox and wake a waiting thread;
+	    // a full mailbox loses the message like the network would
+	    if (!queues[mail.dstPort].offer(mail))
+		Lib.debug(dbgNet, "mailbox " + mail.dstPort + " full, dropped");
 	}
     }
 
@@ -130,5 +180,8 @@ public class PostOffice {
     private Semaphore messageSent;	// V'd when a message can be queued
     private Lock sendLock;
 
+    /** The maximum number of undelivered messages held for one port. */
+    public static final int mailboxCapacity = 64;
+
     private static final char dbgNet = 'n';
 }
@@ -2,9 +2,7 @@
 #include "stdio.h"
 #include "stdlib.h"
 
-#define BUFSIZE 1024
-
-char buf[BUFSIZE];
+#define COPYSIZE 65536
 
 int main(int argc, char** argv)
 {
@@ -28,8 +26,11 @@ int main(int argc, char** argv)
     return 1;
   }
 
-  while ((amount = read(src, buf, BUFSIZE))>0) {
-    write(dst, buf, amount);
+  while ((amount = copyfile(src, dst, COPYSIZE))>0)
+    ;
+  if (amount==-1) {
+    printf("Unable to copy %s\n", argv[1]);
+    return 1;
   }
 
   close(src);
@@ -0,0 +1,131 @@
+/* malloc.c
+ *	A simple first-fit allocator on top of sbrk().
+ *
+ *	Every block starts with a header holding its size (including the
+ *	header). Free blocks are kept on a list sorted by address, so that a
+ *	freed block can be merged with its neighbours. When no free block is big
+ *	enough, the heap is grown with sbrk(), at least a few pages at a time.
+ */
+
+#include "stdlib.h"
+
+#define ALIGN		8
+#define MIN_GROW	4096
+/* the largest request sbrk() can be asked to grow the heap by */
+#define MAX_SIZE	(0x7FFFFFFF - sizeof(header) - (ALIGN-1))
+
+typedef struct header {
+  unsigned int size;
+  struct header *next;
+} header;
+
+static header *freeList = null;
+
+static void insertFree(header *block) {
+  header *prev = null, *cur = freeList;
+
+  while (cur != null && cur < block) {
+    prev = cur;
+    cur = cur->next;
+  }
+
+  /* merge with the following block */
+  if (cur != null && (char*) block + block->size == (char*) cur) {
+    block->size += cur->size;
+    block->next = cur->next;
+  }
+  else {
+    block->next = cur;
+  }
+
+  /* and with the preceding one */
+  if (prev != null && (char*) prev + prev->size == (char*) block) {
+    prev->size += block->size;
+    prev->next = block->next;
+  }
+  else if (prev != null) {
+    prev->next = block;
+  }
+  else {
+    freeList = block;
+  }
+}
+
+void *malloc(unsigned int size) {
+  header *prev, *cur, *block;
+  unsigned int need, grow;
+
+  /* reject sizes whose rounded size would wrap or not fit in sbrk()'s int */
+  if (size == 0 || size > MAX_SIZE)
+    return null;
+
+  need = (sizeof(header) + size + ALIGN-1) & ~(ALIGN-1);
+
+  for (prev = null, cur = freeList; cur != null; prev = cur, cur = cur->next) {
+    if (cur->size >= need) {
+      if (cur->size - need >= sizeof(header) + ALIGN) {
+	/* split, handing out the end of the block */
+	cur->size -= need;
+	block = (header*) ((char*) cur + cur->size);
+	block->size = need;
+      }
+      else {
+	if (prev != null)
+	  prev->next = cur->next;
+	else
+	  freeList = cur->next;
+	block = cur;
+      }
+      return block + 1;
+    }
+  }
+
+  grow = max(need, MIN_GROW);
+  block = (header*) sbrk(grow);
+  if (block == (header*) -1)
+    return null;
+
+  block->size = grow;
+  insertFree(block);
+  return malloc(size);
+}
+
+void free(void *ptr) {
+  if (ptr != null)
+    insertFree((header*) ptr - 1);
+}
+
+void *calloc(unsigned int count, unsigned int size) {
+  void *ptr;
+
+  /* count*size must not wrap around */
+  if (size != 0 && count > 0xFFFFFFFF / size)
+    return null;
+
+  ptr = malloc(count*size);
+
+  if (ptr != null)
+    memset(ptr, 0, count*size);
+
+  return ptr;
+}
+
+void *realloc(void *ptr, unsigned int size) {
+  void *result;
+  unsigned int old;
+
+  if (ptr == null)
+    return malloc(size);
+
+  old = ((header*) ptr - 1)->size - sizeof(header);
+  if (size <= old)
+    return ptr;
+
+  result = malloc(size);
+  if (result != null) {
+    memcpy(result, ptr, old);
+    free(ptr);
+  }
+
+  return result;
+}
@@ -108,11 +108,129 @@ static int tokenizeCommand(char* command, int maxTokens, char *tokens[], char* s
     return numTokens;
 }
 
+/**
+ * runpipeline
+ *
+ * Starts the commands in argv, separated by "|" tokens, as a pipeline: each
+ * command's stdout is connected to the next command's stdin by a pipe. Any
+ * command may also take its stdin from a file with "< file" and send its
+ * stdout to a file with "> file". Operators must be separate tokens.
+ *
+ * Children inherit the shell's descriptors, so each command is started with
+ * the descriptors it should see moved onto 0 and 1 with dup2(), and the
+ * shell's own stdin and stdout are put back afterwards. The shell never holds
+ * a pipe's write end while starting the command that reads from it, so the
+ * reader sees end of file once the writer exits.
+ *
+ * Returns the number of commands started, storing their process IDs in pids.
+ */
+static int runpipeline(int argc, char *argv[], int pids[]) {
+    char prog[BUFFERSIZE];
+    char *args[MAXARGS];
+    char *infile, *outfile;
+    int savedin, savedout, fds[2], fd, piped, nargs, numpids = 0, i = 0;
+
+    savedin = dup(0);
+    savedout = dup(1);
+    if (savedin == -1 || savedout == -1) {
+	printf("sh: Too many open files.\n");
+	goto done;
+    }
+
+    while (i < argc) {
+	nargs = 0;
+	infile = outfile = 0;
+	for (; i < argc && strcmp(argv[i], "|") != 0; i++) {
+	    if (strcmp(argv[i], "<") == 0 || strcmp(argv[i], ">") == 0) {
+		if (i + 1 == argc) {
+		    fprintf(savedout, "Missing name for redirect.\n");
+		    goto done;
+		}
+		if (argv[i][0] == '<')
+		    infile = argv[++i];
+		else
+		    outfile = argv[++i];
+	    }
+	    else {
+		args[nargs++] = argv[i];
+	    }
+	}
+
+	piped = (i < argc);
+	if (nargs == 0 || (piped && i + 1 == argc)) {
+	    fprintf(savedout, "Invalid null command.\n");
+	    goto done;
+	}
+	i++;
+
+	if (infile != 0) {
+	    fd = open(infile);
+	    if (fd == -1) {
+		fprintf(savedout, "%s: open failed.\n", infile);
+		goto done;
+	    }
+	    dup2(fd, 0);
+	    close(fd);
+	}
+
+	if (piped) {
+	    if (pipe(fds) == -1) {
+		fprintf(savedout, "sh: pipe failed.\n");
+		goto done;
+	    }
+	    dup2(fds[1], 1);
+	    close(fds[1]);
+	}
+	else {
+	    dup2(savedout, 1);
+	}
+
+	if (outfile != 0) {
+	    fd = creat(outfile);
+	    if (fd == -1) {
+		fprintf(savedout, "%s: creat failed.\n", outfile);
+		if (piped)
+		    close(fds[0]);
+		goto done;
+	    }
+	    dup2(fd, 1);
+	    close(fd);
+	}
+
+	strcpy(prog, args[0]);
+	strcat(prog, ".coff");
+
+	pids[numpids] = exec(prog, nargs, args);
+	if (pids[numpids] == -1)
+	    fprintf(savedout, "%s: exec failed.\n", args[0]);
+	else
+	    numpids++;
+
+	/* the next command reads what this one writes */
+	if (piped) {
+	    dup2(fds[0], 0);
+	    close(fds[0]);
+	}
+    }
+
+done:
+    if (savedin != -1) {
+	dup2(savedin, 0);
+	close(savedin);
+    }
+    if (savedout != -1) {
+	dup2(savedout, 1);
+	close(savedout);
+    }
+    return numpids;
+}
+
 void runline(char* line) {
-    int pid, background, status;
+    int background, status, numpids, i;
    
-    char args[BUFFERSIZE], prog[BUFFERSIZE];
+    char args[BUFFERSIZE];
     char *argv[MAXARGS];
+    int pids[MAXARGS];
 
     int argc = tokenizeCommand(line, MAXARGS, argv, args);
     if (argc <= 0)
@@ -151,7 +269,8 @@ void runline(char* line) {
 	}
 	else if (strcmp(argv[0], "join")==0) {
 	    if (argc == 2) {
-		pid = atoi(argv[1]);
+		pids[0] = atoi(argv[1]);
+		numpids = 1;
 	    }
 	    else {
 		printf("join: Expression Syntax.\n");
@@ -159,31 +278,26 @@ void runline(char* line) {
 	    }
 	}
 	else {
-	    strcpy(prog, argv[0]);
-	    strcat(prog, ".coff");
-
-	    pid = exec(prog, argc, argv);
-	    if (pid == -1) {
-		printf("%s: exec failed.\n", argv[0]);
-		return;
-	    }
+	    numpids = runpipeline(argc, argv, pids);
 	}
 
-	if (!background) {
-	    switch (join(pid, &status)) {
-	    case -1:
-		printf("join: Invalid process ID.\n");
-		break;
-	    case 0:
-		printf("\n[%d] Unhandled exception\n", pid);
-		break;
-	    case 1:
-		printf("\n[%d] Done (%d)\n", pid, status);
-		break;
+	for (i = 0; i < numpids; i++) {
+	    if (!background) {
+		switch (join(pids[i], &status)) {
+		case -1:
+		    printf("join: Invalid process ID.\n");
+		    break;
+		case 0:
+		    printf("\n[%d] Unhandled exception\n", pids[i]);
+		    break;
+		case 1:
+		    printf("\n[%d] Done (%d)\n", pids[i], status);
+		    break;
+		}
+	    }
+	    else {
+		printf("\n[%d]\n", pids[i]);
 	    }
-	}
-	else {
-	    printf("\n[%d]\n", pid);
 	}
     }
 }
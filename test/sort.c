@@ -2,17 +2,18 @@
  *    Test program to sort a large number of integers.
  *
  *    Intention is to stress virtual memory system. To increase the memory
- *    usage of this program, simply increase SORTSHIFT. The size of the array
- *    is (SORTSIZE)(2^(SORTSHIFT+2)).
+ *    usage of this program, pass the number of integers to sort as its
+ *    argument, or increase SORTSHIFT. The array is allocated on the heap and
+ *    its size is (size)(2^(SORTSHIFT+2)).
  */
 
-#include "syscall.h"
+#include "stdlib.h"
 
-/* size of physical memory; with code, we'll run out of space! */
+/* default number of integers to sort */
 #define SORTSIZE	256
 #define SORTSHIFT	0
 
-int array[SORTSIZE<<SORTSHIFT];
+int *array;
 
 #define	A(i)	(array[(i)<<SORTSHIFT])
 
@@ -24,24 +25,31 @@ void swap(int* x, int* y)
 }
 
 int
-main()
+main(int argc, char *argv[])
 {
-  int i, j;
+  int i, j, size = SORTSIZE;
+
+  if (argc > 1)
+    size = atoi(argv[1]);
+
+  array = (int*) malloc((size<<SORTSHIFT) * sizeof(int));
+  if (array == null)
+    return 2;
   
   /* first initialize the array, in reverse sorted order */
-  for (i=0; i<SORTSIZE; i++)
-    A(i) = (SORTSIZE-1)-i;
+  for (i=0; i<size; i++)
+    A(i) = (size-1)-i;
 
   /* then sort! */
-  for (i=0; i<SORTSIZE-1; i++) {
-    for (j=i; j<SORTSIZE; j++) {
+  for (i=0; i<size-1; i++) {
+    for (j=i; j<size; j++) {
       if (A(i) > A(j))
 	swap(&A(i), &A(j));
     }
   }
 
   /* and last, verify */
-  for (i=0; i<SORTSIZE; i++) {
+  for (i=0; i<size; i++) {
     if (A(i) != i)
       return 1;
   }
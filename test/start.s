@@ -67,3 +67,30 @@ name:				; \
 	SYSCALLSTUB(mmap, syscallMmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(readv, syscallReadv)
+	SYSCALLSTUB(writev, syscallWritev)
+	SYSCALLSTUB(pipe, syscallPipe)
+	SYSCALLSTUB(ring_setup, syscallRingSetup)
+	SYSCALLSTUB(ring_enter, syscallRingEnter)
+	SYSCALLSTUB(aread, syscallAread)
+	SYSCALLSTUB(awrite, syscallAwrite)
+	SYSCALLSTUB(await, syscallAwait)
+	SYSCALLSTUB(apoll, syscallApoll)
+	SYSCALLSTUB(trace, syscallTrace)
+	SYSCALLSTUB(sbrk, syscallSbrk)
+	SYSCALLSTUB(shmget, syscallShmget)
+	SYSCALLSTUB(shmat, syscallShmat)
+	SYSCALLSTUB(shmdt, syscallShmdt)
+	SYSCALLSTUB(futex, syscallFutex)
+	SYSCALLSTUB(thread_create, syscallThreadCreate)
+	SYSCALLSTUB(thread_exit, syscallThreadExit)
+	SYSCALLSTUB(thread_join, syscallThreadJoin)
+	SYSCALLSTUB(sleep, syscallSleep)
+	SYSCALLSTUB(gettime, syscallGettime)
+	SYSCALLSTUB(poll, syscallPoll)
+	SYSCALLSTUB(dup, syscallDup)
+	SYSCALLSTUB(dup2, syscallDup2)
+	SYSCALLSTUB(lseek, syscallLseek)
+	SYSCALLSTUB(pread, syscallPread)
+	SYSCALLSTUB(pwrite, syscallPwrite)
+	SYSCALLSTUB(copyfile, syscallCopyfile)
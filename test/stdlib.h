@@ -27,6 +27,11 @@ void __assert(char* file, int line);
 void *memcpy(void *s1, const void *s2, unsigned int n);
 void *memset(void *s, int c, unsigned int n);
 
+void *malloc(unsigned int size);
+void free(void *ptr);
+void *calloc(unsigned int count, unsigned int size);
+void *realloc(void *ptr, unsigned int size);
+
 unsigned int strlen(const char *str);
 char *strcpy(char *dst, const char *src);
 int strcmp(const char *a, const char *b);
@@ -25,6 +25,33 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallReadv		13
+#define syscallWritev		14
+#define syscallPipe		15
+#define syscallRingSetup	16
+#define syscallRingEnter	17
+#define syscallAread		18
+#define syscallAwrite		19
+#define syscallAwait		20
+#define syscallApoll		21
+#define syscallTrace		22
+#define syscallSbrk		23
+#define syscallShmget		24
+#define syscallShmat		25
+#define syscallShmdt		26
+#define syscallFutex		27
+#define syscallThreadCreate	28
+#define syscallThreadExit	29
+#define syscallThreadJoin	30
+#define syscallSleep		31
+#define syscallGettime		32
+#define syscallPoll		33
+#define syscallDup		34
+#define syscallDup2		35
+#define syscallLseek		36
+#define syscallPread		37
+#define syscallPwrite		38
+#define syscallCopyfile		39
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -71,8 +98,10 @@ void exit(int status);
 /**
  * Execute the program stored in the specified file, with the specified
  * arguments, in a new child process. The child process has a new unique
- * process ID, and starts with stdin opened as file descriptor 0, and stdout
- * opened as file descriptor 1.
+ * process ID, and starts with a copy of the caller's file descriptors, each
+ * referring to the same open file (and so sharing its position) as in the
+ * caller. Unless the caller has redirected them, these are stdin as file
+ * descriptor 0 and stdout as file descriptor 1.
  *
  * file is a null-terminated string that specifies the name of the file
  * containing the executable. Note that this string must include the ".coff"
@@ -181,6 +210,178 @@ int read(int fileDescriptor, void *buffer, int count);
  */
 int write(int fileDescriptor, void *buffer, int count);
 
+/* One buffer of a readv() or writev() call. */
+struct iovec {
+    void *iov_base;
+    int iov_len;
+};
+
+/**
+ * Read from the file or stream referred to by fileDescriptor into the iovcnt
+ * buffers described by iov, filling each one completely before moving on to
+ * the next. This behaves like a sequence of read() calls, but traps into the
+ * kernel only once. At most 1024 buffers may be given.
+ *
+ * Returns the total number of bytes read, which is smaller than the total
+ * size of the buffers under the same conditions as for read(). On error, -1
+ * is returned.
+ */
+int readv(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Write the iovcnt buffers described by iov, in order, to the file or stream
+ * referred to by fileDescriptor. This behaves like a sequence of write()
+ * calls, but traps into the kernel only once. At most 1024 buffers may be
+ * given.
+ *
+ * Returns the total number of bytes written, or -1 on error.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Create a pipe: a one-way stream held in kernel memory. fds[0] is set to a
+ * new file descriptor for reading from the pipe, and fds[1] to one for writing
+ * to it.
+ *
+ * read() on an empty pipe waits until some data is written, and returns 0 once
+ * every descriptor for the write end has been closed. write() to a full pipe
+ * waits for a reader to make room, and fails if every descriptor for the read
+ * end has been closed. A process started with exec() inherits the caller's
+ * pipe descriptors, under the same numbers, like its other descriptors.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int pipe(int fds[2]);
+
+/* Request opcodes for a submission ring. Each runs like the syscall of the
+ * same name, with fd, addr and len as its arguments.
+ */
+#define RING_NOP	0
+#define RING_READ	1	/* read(fd, addr, len) */
+#define RING_WRITE	2	/* write(fd, addr, len) */
+#define RING_OPEN	3	/* open(addr) */
+#define RING_CLOSE	4	/* close(fd) */
+#define RING_CREAT	5	/* creat(addr) */
+
+/* ring_setup() flag: have the kernel consume submissions on its own. */
+#define RING_POLL	1
+
+struct io_sqe {
+    int opcode;
+    int fd;
+    void *addr;
+    int len;
+    int user_data;	/* copied to the completion */
+};
+
+struct io_cqe {
+    int user_data;
+    int result;		/* what the syscall returned */
+};
+
+/* The ring header. It is followed in memory by `entries' submission entries
+ * and then `entries' completion entries; use IO_RING_SQ() and IO_RING_CQ() to
+ * find them. IO_RING_SIZE(n) is the number of bytes a ring of n entries
+ * needs.
+ *
+ * Heads and tails are free-running counters; the slot of an entry is its
+ * counter modulo entries. The program only ever writes sq_tail and cq_head;
+ * the kernel only ever writes sq_head and cq_tail.
+ */
+struct io_ring {
+    int sq_head, sq_tail;
+    int cq_head, cq_tail;
+    int entries, flags;
+};
+
+#define IO_RING_SQ(r)	((struct io_sqe *) ((r) + 1))
+#define IO_RING_CQ(r)	((struct io_cqe *) (IO_RING_SQ(r) + (r)->entries))
+#define IO_RING_SIZE(n)	(sizeof(struct io_ring) + \
+			 (n) * (sizeof(struct io_sqe) + sizeof(struct io_cqe)))
+
+/**
+ * Register a submission ring of `entries' entries (a power of two, at most
+ * 4096) at ring, which must point to IO_RING_SIZE(entries) bytes of writable
+ * memory. The kernel initializes the header. A process can have one ring.
+ *
+ * With RING_POLL in flags, a kernel thread checks the submission ring
+ * periodically, so the program never has to trap to get its requests run.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int ring_setup(struct io_ring *ring, int entries, int flags);
+
+/**
+ * Run every request queued in this process's submission ring, in order,
+ * posting a completion for each. Stops early if the completion ring fills
+ * up.
+ *
+ * Returns the number of requests consumed, or -1 if the process has no ring
+ * or the ring header is corrupt.
+ */
+int ring_enter();
+
+/* The outcome of an asynchronous request. All times are in ticks. */
+struct aio_status {
+    int result;		/* what read() or write() would have returned */
+    int latency;	/* from aread()/awrite() until the request completed */
+    int queued;		/* how much of that it waited for a kernel worker */
+};
+
+/**
+ * Start reading up to count bytes from fileDescriptor into buffer, and return
+ * immediately. The read is done by a kernel thread while the program keeps
+ * running; the buffer must not be touched until the request has completed.
+ *
+ * Returns a request id to pass to await() or apoll(), or -1 if
+ * fileDescriptor is invalid or too many requests are outstanding.
+ */
+int aread(int fileDescriptor, void *buffer, int count);
+
+/**
+ * Start writing count bytes from buffer to fileDescriptor, and return
+ * immediately. Like aread(), but for write().
+ */
+int awrite(int fileDescriptor, void *buffer, int count);
+
+/**
+ * Wait for an asynchronous request to complete, and store its outcome in
+ * *status (unless status is null). The id is released.
+ *
+ * Returns 0 on success, or -1 if id is not an outstanding request.
+ */
+int await(int id, struct aio_status *status);
+
+/**
+ * Check whether an asynchronous request has completed without waiting. If
+ * it has, store its outcome in *status (unless status is null) and release
+ * the id.
+ *
+ * Returns 1 if the request has completed, 0 if it has not, or -1 if id is not
+ * an outstanding request.
+ */
+int apoll(int id, struct aio_status *status);
+
+/* Modes of trace(). */
+#define TRACE_OFF	0
+#define TRACE_ON	1
+#define TRACE_PRINT	2
+
+/**
+ * Control tracing of this process's syscalls. TRACE_ON starts recording the
+ * number, arguments, result and timing of every syscall; TRACE_OFF stops.
+ * TRACE_PRINT prints the most recent calls and, for each syscall, the number
+ * of calls, the total ticks spent in it and the longest call. The summary is
+ * also printed when a traced process exits.
+ *
+ * Every process is traced from the start if UserKernel.traceSyscalls is set
+ * in nachos.conf.
+ *
+ * Returns 0 on success, or -1 if mode is invalid or, for TRACE_PRINT, if
+ * tracing was never turned on.
+ */
+int trace(int mode);
+
 /**
  * Close a file descriptor, so that it no longer refers to any file or stream
  * and may be reused.
@@ -228,6 +429,212 @@ int unlink(char *name);
  */
 int mmap(int fileDescriptor, char *address);
 
+/**
+ * Move the end of this process's heap by increment bytes, which may be
+ * negative to give memory back. The heap starts out empty just above the
+ * program's arguments. New memory reads as zero; physical memory is only
+ * allocated for each page when it is first touched.
+ *
+ * Returns the previous end of the heap (so sbrk(0) returns the current end),
+ * or (void *) -1 if the heap would shrink below its start or grow beyond the
+ * size of physical memory.
+ */
+void *sbrk(int increment);
+
+/**
+ * Look up the shared memory segment named by key, creating it if no process
+ * is using one with that key. A new segment is size bytes long, rounded up to
+ * whole pages, and zero-filled. Other processes that look up the same key get
+ * the same segment for as long as any process still uses it; a segment is
+ * removed when no process has it looked up or mapped any more.
+ *
+ * Returns an id to pass to shmat(), or -1 if size is not positive, if an
+ * existing segment is smaller than size, or if there is not enough physical
+ * memory for a new one.
+ */
+int shmget(int key, int size);
+
+/**
+ * Map a segment looked up with shmget() into this process's memory, above
+ * the highest address the heap can grow to. The same segment can be mapped
+ * more than once. Writes through any mapping in any process are seen at once
+ * through all of them.
+ *
+ * Returns the address of the mapping, or (void *) -1 if id was not returned
+ * by shmget() in this process.
+ */
+void *shmat(int id);
+
+/**
+ * Unmap a segment mapped by shmat(). All segments are unmapped and released
+ * when the process exits.
+ *
+ * Returns 0 on success, or -1 if address is not the start of a mapping.
+ */
+int shmdt(void *address);
+
+/* Operations of futex(). */
+#define FUTEX_WAIT	0
+#define FUTEX_WAKE	1
+
+/**
+ * Sleep or wake on a word of memory, to build locks and condition variables
+ * that only enter the kernel under contention. The word itself is ordinary
+ * memory that the program reads and writes directly.
+ *
+ * FUTEX_WAIT: if *address still equals value, sleep until another thread of
+ * this process calls FUTEX_WAKE on the same address. Checking the word and
+ * going to sleep are atomic with respect to FUTEX_WAKE. Returns 0 once woken,
+ * or -1 at once if *address no longer equals value.
+ *
+ * FUTEX_WAKE: wake up to value threads sleeping on address. Returns the
+ * number woken.
+ *
+ * Returns -1 if address is not a word-aligned address in this process's
+ * memory, or op is invalid.
+ */
+int futex(int *address, int op, int value);
+
+/**
+ * Start a new thread in this process, running func(arg). The thread shares
+ * this process's memory and open files, and gets a stack of its own mapped
+ * above the heap. func must not return; it must end by calling thread_exit().
+ *
+ * Returns the id of the new thread, or -1 if the process has too many
+ * threads or no room for another stack.
+ */
+int thread_create(void (*func)(void *), void *arg);
+
+/**
+ * Terminate the calling thread, keeping status for thread_join(). Called from
+ * the process's first thread, thread_exit() waits for every other thread to
+ * call thread_exit() and then exits the process with status. Calling exit()
+ * from any thread terminates every thread of the process.
+ */
+void thread_exit(int status);
+
+/**
+ * Wait for a thread created by this process to call thread_exit(), and store
+ * its status in *status (unless status is null). A thread can only be joined
+ * once.
+ *
+ * Returns 0 on success, or -1 if id is not a thread of this process that has
+ * not been joined yet.
+ */
+int thread_join(int id, int *status);
+
+/**
+ * Sleep for at least ticks clock ticks without using the processor. The
+ * kernel's timer only fires about every 500 ticks, so the sleep is rounded up
+ * to the next timer interrupt.
+ *
+ * Returns 0 on success, or -1 if ticks is negative.
+ */
+int sleep(int ticks);
+
+/**
+ * Return the number of clock ticks since Nachos started, modulo 2^32. The
+ * difference between two calls is the time between them, as long as it is
+ * less than 2^31 ticks.
+ */
+int gettime();
+
+/* A descriptor to wait for in poll(), and the events to wait for. */
+struct pollfd {
+    int fd;		/* ignored if negative */
+    short events;	/* POLLIN and/or POLLOUT */
+    short revents;	/* set by poll() */
+};
+
+#define POLLIN		0x01	/* reading will not block */
+#define POLLOUT		0x04	/* writing will not block */
+#define POLLHUP		0x10	/* the other end of a pipe has been closed */
+#define POLLNVAL	0x20	/* fd is not open */
+
+/**
+ * Wait until at least one of nfds descriptors is ready, or until timeout
+ * ticks have passed. For each entry, poll() sets revents to the events that
+ * hold: those asked for in events, plus POLLHUP and POLLNVAL, which are
+ * always reported. The console is ready for reading when a character has
+ * arrived, and a pipe when it holds data or has no writers left; files on
+ * disk are always ready.
+ *
+ * A timeout of 0 checks the descriptors without waiting; a negative timeout
+ * waits for as long as it takes.
+ *
+ * Returns the number of entries with a non-zero revents (0 if the timeout
+ * passed first), or -1 if fds is invalid or nfds is too large.
+ */
+int poll(struct pollfd *fds, int nfds, int timeout);
+
+/**
+ * Return a new file descriptor, the lowest one not in use, referring to the
+ * same open file as fd. The two descriptors share the file position, and the
+ * file stays open until both have been closed.
+ *
+ * Returns the new file descriptor, or -1 if fd is not open or the process
+ * has as many descriptors open as it may.
+ */
+int dup(int fd);
+
+/**
+ * Make newfd refer to the same open file as fd, closing whatever newfd
+ * referred to first. Nothing is closed if newfd is fd.
+ *
+ * Returns newfd, or -1 if fd is not open or newfd is out of range.
+ */
+int dup2(int fd, int newfd);
+
+/* Where lseek() measures its offset from. */
+#define SEEK_SET	0	/* the start of the file */
+#define SEEK_CUR	1	/* the current position */
+#define SEEK_END	2	/* the end of the file */
+
+/**
+ * Move the position of the file referred to by fd to offset bytes from the
+ * start of the file, the current position, or the end of the file, as whence
+ * is SEEK_SET, SEEK_CUR or SEEK_END. The position may be past the end of the
+ * file. Every descriptor sharing the file sees the new position.
+ *
+ * Returns the new position, or -1 if fd is not open, refers to a stream, or
+ * the new position would be negative.
+ */
+int lseek(int fd, int offset, int whence);
+
+/**
+ * Read up to count bytes into buffer from the file referred to by fd,
+ * starting offset bytes into the file. Like read(), but the file position is
+ * neither used nor changed, so a file can be read at many places without
+ * seeking first.
+ *
+ * Returns the number of bytes read (0 at or past the end of the file), or -1
+ * if fd is not open, refers to a stream, or the buffer is invalid.
+ */
+int pread(int fd, void *buffer, int count, int offset);
+
+/**
+ * Write count bytes from buffer to the file referred to by fd, starting
+ * offset bytes into the file, without using or changing the file position.
+ *
+ * Returns the number of bytes written, or -1 on error as for pread().
+ */
+int pwrite(int fd, void *buffer, int count, int offset);
+
+/**
+ * Copy up to count bytes from the file or stream referred to by srcFd to the
+ * one referred to by dstFd, starting at and advancing both positions. The
+ * data is moved inside the kernel, so copying a whole file takes one call
+ * and never touches a user buffer. Copying stops early at the end of the
+ * source, or as soon as a read from a stream returns less than was asked
+ * for. Reading from an empty pipe waits for some data, as read() does, but
+ * copyfile() never waits for a pipe to fill up.
+ *
+ * Returns the number of bytes copied (0 at the end of the source), or -1 if
+ * either descriptor is not open or nothing could be copied because of an
+ * error.
+ */
+int copyfile(int srcFd, int dstFd, int count);
+
 /**
  * Attempt to initiate a new connection to the specified port on the specified
  * remote host, and return a new file descriptor referring to the connection.
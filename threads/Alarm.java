@@ -1,5 +1,6 @@
 package nachos.threads;
 
+import java.util.Iterator;
 import java.util.PriorityQueue;
 
 import nachos.machine.*;
@@ -64,6 +65,29 @@ public class Alarm {
 		Machine.interrupt().restore(intStatus);
 	}
 
+	/**
+	 * Wake a thread sleeping in <tt>waitUntil()</tt> before its time is up.
+	 *
+	 * @param thread
+	 *            the thread to wake.
+	 * @return <tt>true</tt> if the thread was sleeping in <tt>waitUntil()</tt>
+	 *         and has been woken.
+	 */
+	public boolean wakeEarly(KThread thread) {
+		boolean intStatus = Machine.interrupt().disable();
+		boolean found = false;
+		for (Iterator<WaitingThread> it = waiterQueue.iterator(); it.hasNext();) {
+			if (it.next().thread == thread) {
+				it.remove();
+				thread.ready();
+				found = true;
+				break;
+			}
+		}
+		Machine.interrupt().restore(intStatus);
+		return found;
+	}
+
 	private class WaitingThread implements Comparable<WaitingThread> {
 		private long wakeTime;
 		private KThread thread;
@@ -2,6 +2,8 @@ package nachos.threads;
 
 import nachos.machine.*;
 
+import java.util.LinkedList;
+
 /**
  * An implementation of condition variables that disables interrupt()s for
  * synchronization.
@@ -57,20 +59,15 @@ public class Condition2 {
 
 	/**
 	 * Wake up all threads sleeping on this condition variable. The current
-	 * thread must hold the associated lock.
+	 * thread must hold the associated lock. The waiters are moved to the ready
+	 * queue as one batch, so the scheduler's bookkeeping is updated once
+	 * rather than once per waiter.
 	 */
 	public void wakeAll() {
 		Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 		boolean intStatus = Machine.interrupt().disable();
 
-		for (;;) {
-			KThread thread = waiterQueue.nextThread();
-			if (thread != null) {
-				thread.ready();
-			} else {
-				break;
-			}
-		}
+		KThread.readyAll(waiterQueue.drainAll());
 
 		Machine.interrupt().restore(intStatus);
 	}
@@ -136,6 +133,81 @@ public class Condition2 {
 		t5.join();
 	}
 
+	/**
+	 * Test that wakeAll() releases every waiter, that the woken threads run in
+	 * the scheduler's order, and that they can donate priority again once they
+	 * block on something else.
+	 */
+	public static void selfTest2() {
+		final Lock lock = new Lock();
+		final Condition2 condition = new Condition2(lock);
+		final Lock mutex = new Lock();
+		final LinkedList<Integer> order = new LinkedList<Integer>();
+		final int n = 5;
+
+		// hold the mutex, so woken waiters block on it and donate to us
+		mutex.acquire();
+
+		KThread[] waiters = new KThread[n];
+		boolean intStatus = Machine.interrupt().disable();
+		for (int i = 0; i < n; i++) {
+			final int id = i;
+			waiters[i] = new KThread(new Runnable() {
+				public void run() {
+					lock.acquire();
+					condition.sleep();
+					order.add(id);
+					lock.release();
+					mutex.acquire();
+					mutex.release();
+				}
+			}).setName("waiter " + i);
+			ThreadedKernel.scheduler.setPriority(waiters[i], i + 2);
+			waiters[i].fork();
+		}
+		Machine.interrupt().restore(intStatus);
+
+		ThreadedKernel.alarm.waitUntil(1000);
+		Lib.assertTrue(order.isEmpty());
+
+		lock.acquire();
+		condition.wakeAll();
+		lock.release();
+
+		ThreadedKernel.alarm.waitUntil(1000);
+		Lib.assertTrue(order.size() == n);
+
+		if (ThreadedKernel.scheduler instanceof RoundRobinScheduler) {
+			for (int i = 0; i < n; i++)
+				Lib.assertTrue(order.get(i) == i);
+		} else if (ThreadedKernel.scheduler instanceof PriorityScheduler) {
+			// every waiter is now blocked on the mutex we hold
+			intStatus = Machine.interrupt().disable();
+			Lib.assertTrue(ThreadedKernel.scheduler
+					.getEffectivePriority() >= n + 1);
+			for (int i = 0; i < n; i++)
+				Lib.assertTrue(ThreadedKernel.scheduler
+						.getEffectivePriority(waiters[i]) == i + 2);
+			Machine.interrupt().restore(intStatus);
+
+			// a lottery wakes them in random order
+			if (!(ThreadedKernel.scheduler instanceof LotteryScheduler)) {
+				for (int i = 0; i < n; i++)
+					Lib.assertTrue(order.get(i) == n - 1 - i);
+			}
+		}
+
+		mutex.release();
+		for (int i = 0; i < n; i++)
+			waiters[i].join();
+
+		intStatus = Machine.interrupt().disable();
+		Lib.assertTrue(ThreadedKernel.scheduler
+				.getEffectivePriority() == ThreadedKernel.scheduler
+				.getPriority());
+		Machine.interrupt().restore(intStatus);
+	}
+
 	private Lock conditionLock;
 
 	private ThreadQueue waiterQueue = ThreadedKernel.scheduler
@@ -1,10 +1,26 @@
 package nachos.threads;
 
+import java.util.Random;
+
 import nachos.machine.*;
 
 /**
  * A controller for all the elevators in an elevator bank. The controller
  * accesses the elevator bank through an instance of <tt>ElevatorControls</tt>.
+ *
+ * <p>
+ * This controller runs every elevator with the LOOK algorithm: an elevator
+ * keeps moving in one direction while it has stops ahead, stopping for
+ * riders inside and for hall calls in its direction of travel, and only then
+ * turns around.
+ *
+ * <p>
+ * Each hall call is assigned, when its button is pressed, to the elevator
+ * with the lowest estimated cost: the ticks it needs to reach the floor
+ * going the right way, plus the time its doors will spend open at the stops
+ * it already has. A moving elevator that is assigned a call ahead of it, in
+ * its direction of travel, is retargeted so that it stops there on the way.
+ * Every stop opens the doors once for all riders getting on or off there.
  */
 public class ElevatorController implements ElevatorControllerInterface {
     /**
@@ -26,6 +42,29 @@ public class ElevatorController implements ElevatorControllerInterface {
      *				the elevator bank in <i>any</i> other way.
      */
     public void initialize(ElevatorControls controls) {
+	this.controls = controls;
+
+	numFloors = controls.getNumFloors();
+	numElevators = controls.getNumElevators();
+
+	hallCall = new int[2][numFloors];
+	for (int i = 0; i < numFloors; i++)
+	    hallCall[0][i] = hallCall[1][i] = noCall;
+
+	carCall = new boolean[numElevators][numFloors];
+	numStops = new int[numElevators];
+	state = new int[numElevators];
+	direction = new int[numElevators];
+	destination = new int[numElevators];
+	closeTime = new long[numElevators];
+
+	eventWait = new Semaphore(0);
+
+	controls.setInterruptHandler(new Runnable() {
+	    public void run() {
+		eventWait.V();
+	    }
+	});
     }
 
     /**
@@ -34,5 +73,351 @@ public class ElevatorController implements ElevatorControllerInterface {
      * call <tt>controls.finish()</tt> when the controller is finished.
      */
     public void run() {
+	while (true) {
+	    ElevatorEvent e;
+	    while ((e = controls.getNextEvent()) != null) {
+		switch (e.event) {
+		case ElevatorEvent.eventUpButtonPressed:
+		    hallButtonPressed(e.floor, dirUp);
+		    break;
+		case ElevatorEvent.eventDownButtonPressed:
+		    hallButtonPressed(e.floor, dirDown);
+		    break;
+		case ElevatorEvent.eventFloorButtonPressed:
+		    floorButtonPressed(e.elevator, e.floor);
+		    break;
+		case ElevatorEvent.eventElevatorArrived:
+		    arrived(e.elevator, e.floor);
+		    break;
+		case ElevatorEvent.eventRidersDone:
+		    controls.finish();
+		    Lib.assertNotReached();
+		}
+	    }
+
+	    long now = Machine.timer().getTime();
+	    for (int i = 0; i < numElevators; i++) {
+		if (state[i] == stateOpen && closeTime[i] <= now) {
+		    controls.closeDoors(i);
+		    state[i] = stateIdle;
+		}
+		if (state[i] == stateIdle)
+		    dispatch(i);
+	    }
+
+	    long nextClose = Long.MAX_VALUE;
+	    for (int i = 0; i < numElevators; i++) {
+		if (state[i] == stateOpen)
+		    nextClose = Math.min(nextClose, closeTime[i]);
+	    }
+
+	    now = Machine.timer().getTime();
+	    if (nextClose == Long.MAX_VALUE)
+		eventWait.P();
+	    else if (nextClose > now)
+		ThreadedKernel.alarm.waitUntil(nextClose - now);
+	}
+    }
+
+    private void hallButtonPressed(int floor, int dir) {
+	if (hallCall[index(dir)][floor] != noCall)
+	    return;
+
+	// an elevator standing open here without a direction takes it now
+	for (int i = 0; i < numElevators; i++) {
+	    if (state[i] == stateOpen && direction[i] == dirNeither
+		    && controls.getFloor(i) == floor) {
+		direction[i] = dir;
+		controls.setDirectionDisplay(i, dir);
+		closeTime[i] = Machine.timer().getTime() + timeDoorsOpen;
+		return;
+	    }
+	}
+
+	int best = 0;
+	long bestCost = Long.MAX_VALUE;
+	for (int i = 0; i < numElevators; i++) {
+	    long c = cost(i, floor, dir);
+	    if (c < bestCost) {
+		best = i;
+		bestCost = c;
+	    }
+	}
+
+	hallCall[index(dir)][floor] = best;
+	numStops[best]++;
+
+	if (direction[best] == dir)
+	    stopOnTheWay(best, floor);
     }
+
+    private void floorButtonPressed(int elevator, int floor) {
+	if (carCall[elevator][floor])
+	    return;
+
+	carCall[elevator][floor] = true;
+	numStops[elevator]++;
+
+	stopOnTheWay(elevator, floor);
+    }
+
+    /**
+     * If the elevator is moving towards <i>floor</i> and has not passed it,
+     * make it stop there first.
+     */
+    private void stopOnTheWay(int elevator, int floor) {
+	if (state[elevator] != stateMoving)
+	    return;
+
+	int at = controls.getFloor(elevator);
+	int dir = direction[elevator];
+	if ((floor - at) * dir > 0 && (destination[elevator] - floor) * dir > 0
+		&& controls.moveTo(floor, elevator))
+	    destination[elevator] = floor;
+    }
+
+    private void arrived(int elevator, int floor) {
+	state[elevator] = stateIdle;
+
+	boolean stop = false;
+	if (carCall[elevator][floor]) {
+	    carCall[elevator][floor] = false;
+	    numStops[elevator]--;
+	    stop = true;
+	}
+
+	int dir = chooseDirection(elevator, floor, true);
+	direction[elevator] = dir;
+
+	if (dir != dirNeither && hallCall[index(dir)][floor] != noCall) {
+	    clearHallCall(floor, dir);
+	    stop = true;
+	}
+
+	if (stop)
+	    openDoors(elevator, dir);
+    }
+
+    /**
+     * Give a stopped elevator with its doors closed something to do.
+     */
+    private void dispatch(int elevator) {
+	int floor = controls.getFloor(elevator);
+
+	/*
+	 * Riders already on board have pressed their floor buttons by the time
+	 * the doors close. If there are any, do not reopen for a hall call
+	 * here: whoever pressed it could not get on (probably because we are
+	 * full), and reopening would only repeat that.
+	 */
+	boolean carrying = hasCarCalls(elevator);
+	int dir = chooseDirection(elevator, floor, !carrying);
+	direction[elevator] = dir;
+
+	if (dir == dirNeither)
+	    return;
+
+	if (!carrying && hallCall[index(dir)][floor] != noCall) {
+	    clearHallCall(floor, dir);
+	    openDoors(elevator, dir);
+	    return;
+	}
+
+	int target = nextStop(elevator, floor, dir);
+	Lib.assertTrue(target != floor);
+	if (controls.moveTo(target, elevator)) {
+	    state[elevator] = stateMoving;
+	    destination[elevator] = target;
+	}
+    }
+
+    private void openDoors(int elevator, int dir) {
+	controls.setDirectionDisplay(elevator, dir);
+	controls.openDoors(elevator);
+	state[elevator] = stateOpen;
+	closeTime[elevator] = Machine.timer().getTime() + timeDoorsOpen;
+    }
+
+    /**
+     * Decide which way an elevator at <i>floor</i> should go next: keep going
+     * while there is work ahead, otherwise turn around if there is work
+     * behind.
+     */
+    private int chooseDirection(int elevator, int floor, boolean includeHere) {
+	int dir = direction[elevator];
+	if (dir == dirNeither)
+	    dir = dirUp;
+
+	if (includeHere && hallCall[index(dir)][floor] != noCall
+		|| hasWorkBeyond(elevator, floor, dir))
+	    return dir;
+	if (includeHere && hallCall[index(-dir)][floor] != noCall
+		|| hasWorkBeyond(elevator, floor, -dir))
+	    return -dir;
+	return dirNeither;
+    }
+
+    private boolean hasWorkBeyond(int elevator, int floor, int dir) {
+	for (int f = floor + dir; f >= 0 && f < numFloors; f += dir) {
+	    if (carCall[elevator][f] || hallCall[0][f] == elevator
+		    || hallCall[1][f] == elevator)
+		return true;
+	}
+	return false;
+    }
+
+    private boolean hasCarCalls(int elevator) {
+	for (int f = 0; f < numFloors; f++) {
+	    if (carCall[elevator][f])
+		return true;
+	}
+	return false;
+    }
+
+    /**
+     * Return the next floor an elevator going <i>dir</i> from <i>floor</i>
+     * should stop at: the nearest car call or hall call in that direction, or
+     * failing that, the farthest hall call in the opposite direction, where it
+     * will turn around.
+     */
+    private int nextStop(int elevator, int floor, int dir) {
+	int farthest = floor;
+	for (int f = floor + dir; f >= 0 && f < numFloors; f += dir) {
+	    if (carCall[elevator][f] || hallCall[index(dir)][f] == elevator)
+		return f;
+	    if (hallCall[index(-dir)][f] == elevator)
+		farthest = f;
+	}
+	return farthest;
+    }
+
+    /**
+     * Estimate the ticks until an elevator could pick up a hall call.
+     */
+    private long cost(int elevator, int floor, int dir) {
+	int at = controls.getFloor(elevator);
+	int travelling = direction[elevator];
+	int distance;
+
+	if (state[elevator] == stateIdle && numStops[elevator] == 0
+		|| travelling == dirNeither)
+	    distance = Math.abs(floor - at);
+	else if (travelling == dir && (floor - at) * dir > 0)
+	    distance = Math.abs(floor - at);
+	else {
+	    // finish the current sweep, then come back
+	    int end = at;
+	    for (int f = at; f >= 0 && f < numFloors; f += travelling) {
+		if (carCall[elevator][f] || hallCall[0][f] == elevator
+			|| hallCall[1][f] == elevator)
+		    end = f;
+	    }
+	    distance = Math.abs(end - at) + Math.abs(end - floor);
+	    if (travelling == dir)
+		distance += numFloors;
+	}
+
+	return (long) distance * Stats.ElevatorTicks + (long) numStops[elevator]
+		* timeDoorsOpen;
+    }
+
+    private void clearHallCall(int floor, int dir) {
+	int assigned = hallCall[index(dir)][floor];
+	if (assigned != noCall) {
+	    numStops[assigned]--;
+	    hallCall[index(dir)][floor] = noCall;
+	}
+    }
+
+    private static int index(int dir) {
+	Lib.assertTrue(dir == dirUp || dir == dirDown);
+	return dir == dirUp ? 0 : 1;
+    }
+
+    /**
+     * Run a headless simulation with the specified shape and report how many
+     * trips were completed per million ticks, along with wait and travel time
+     * percentiles. Every rider makes <i>tripsPerRider</i> trips between random
+     * floors. Requires the elevator bank to be enabled.
+     *
+     * @param	numElevators	the number of elevators.
+     * @param	numFloors	the number of floors.
+     * @param	numRiders	the number of riders. Each one is a
+     *				<tt>KThread</tt>, so this is bounded by the
+     *				number of threads the machine allows.
+     * @param	tripsPerRider	the number of trips each rider makes.
+     * @param	seed		the random seed for the riders' floors.
+     * @return	the statistics collected.
+     */
+    public static RiderStats loadTest(int numElevators, int numFloors,
+	    int numRiders, int tripsPerRider, long seed) {
+	Lib.assertTrue(Machine.bank() != null);
+	Lib.assertTrue(numFloors >= 2);
+
+	Random random = new Random(seed);
+	RiderStats stats = new RiderStats();
+
+	Machine.bank().init(numElevators, numFloors, new ElevatorController());
+	for (int i = 0; i < numRiders; i++) {
+	    int floor = random.nextInt(numFloors);
+	    int[] stops = new int[tripsPerRider];
+	    int from = floor;
+	    for (int j = 0; j < tripsPerRider; j++) {
+		int to = random.nextInt(numFloors - 1);
+		if (to >= from)
+		    to++;
+		stops[j] = from = to;
+	    }
+	    Machine.bank().addRider(new Rider(stats), floor, stops);
+	}
+
+	long start = Machine.timer().getTime();
+	Machine.bank().run();
+	long ticks = Machine.timer().getTime() - start;
+
+	Lib.assertTrue(stats.getNumTrips() == numRiders * tripsPerRider);
+
+	System.out.println("elevators=" + numElevators + " floors="
+		+ numFloors + " riders=" + numRiders + " trips/rider="
+		+ tripsPerRider + ":");
+	stats.print(ticks);
+
+	return stats;
+    }
+
+    /**
+     * Test this controller under increasing load.
+     */
+    public static void selfTest() {
+	loadTest(1, 2, 1, 1, 0);
+	loadTest(1, 5, 10, 3, 1);
+	loadTest(4, 20, 50, 5, 2);
+	loadTest(8, 100, 200, 5, 3);
+	loadTest(16, 300, 200, 10, 4);
+    }
+
+    private ElevatorControls controls;
+    private Semaphore eventWait;
+    private int numFloors, numElevators;
+
+    /**
+     * The elevator assigned to each pending hall call, indexed by direction
+     * (up, then down) and floor, or <tt>noCall</tt>.
+     */
+    private int[][] hallCall;
+    /** The floor buttons pressed inside each elevator. */
+    private boolean[][] carCall;
+    /** The car calls plus assigned hall calls of each elevator. */
+    private int[] numStops;
+
+    private int[] state;
+    private int[] direction;
+    private int[] destination;
+    private long[] closeTime;
+
+    private static final int noCall = -1;
+
+    private static final int stateIdle = 0;
+    private static final int stateMoving = 1;
+    private static final int stateOpen = 2;
 }
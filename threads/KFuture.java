@@ -0,0 +1,167 @@
+package nachos.threads;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import nachos.machine.*;
+
+/**
+ * The result of an asynchronous kernel job. A <tt>KFuture</tt> starts out
+ * pending and is completed exactly once, either with a value or with the
+ * exception that the job threw. Any number of threads may wait for it.
+ *
+ * <p>
+ * Futures are usually obtained from <tt>KThreadPool.submit()</tt>, but a
+ * kernel subsystem can also create one directly and complete it itself.
+ *
+ * @see nachos.threads.KThreadPool
+ */
+public class KFuture<T> {
+	/**
+	 * Allocate a new, pending future.
+	 */
+	public KFuture() {
+	}
+
+	/**
+	 * Complete this future with the specified value, waking every thread
+	 * waiting in <tt>join()</tt> and then running the completion callbacks.
+	 * The future must still be pending.
+	 *
+	 * @param value
+	 *            the result of the job.
+	 */
+	public void complete(T value) {
+		finish(value, null);
+	}
+
+	/**
+	 * Complete this future with a failure. <tt>join()</tt> will return
+	 * <tt>null</tt> and <tt>getException()</tt> the cause.
+	 *
+	 * @param exception
+	 *            the exception thrown by the job.
+	 */
+	public void fail(Exception exception) {
+		Lib.assertTrue(exception != null);
+
+		finish(null, exception);
+	}
+
+	private void finish(T value, Exception exception) {
+		lock.acquire();
+		Lib.assertTrue(!done);
+		this.value = value;
+		this.exception = exception;
+		done = true;
+		completed.wakeAll();
+		List<Runnable> toRun = callbacks;
+		callbacks = null;
+		lock.release();
+
+		for (Runnable callback : toRun)
+			callback.run();
+	}
+
+	/**
+	 * Test whether this future has completed.
+	 *
+	 * @return <tt>true</tt> if the job has finished, successfully or not.
+	 */
+	public boolean isDone() {
+		lock.acquire();
+		boolean result = done;
+		lock.release();
+		return result;
+	}
+
+	/**
+	 * Wait for this future to complete and return its value.
+	 *
+	 * @return the value the job completed with, or <tt>null</tt> if it failed.
+	 */
+	public T join() {
+		lock.acquire();
+		while (!done)
+			completed.sleep();
+		lock.release();
+		return value;
+	}
+
+	/**
+	 * Return the exception that made the job fail.
+	 *
+	 * @return the exception, or <tt>null</tt> if the job is still pending or
+	 *         completed normally.
+	 */
+	public Exception getException() {
+		lock.acquire();
+		Exception result = exception;
+		lock.release();
+		return result;
+	}
+
+	/**
+	 * Register a callback to run when this future completes. The callback
+	 * runs in the thread that completes the future, after the joiners have
+	 * been woken; if the future is already complete, it runs immediately in
+	 * the current thread. Callbacks should be short and must not block on
+	 * this future.
+	 *
+	 * @param callback
+	 *            the code to run on completion.
+	 */
+	public void whenComplete(Runnable callback) {
+		Lib.assertTrue(callback != null);
+
+		lock.acquire();
+		if (!done) {
+			callbacks.add(callback);
+			lock.release();
+			return;
+		}
+		lock.release();
+
+		callback.run();
+	}
+
+	/**
+	 * Wait until at least one of the specified futures has completed.
+	 *
+	 * @param futures
+	 *            the futures to wait for. Must not be empty.
+	 * @return the index in <i>futures</i> of a completed future.
+	 */
+	public static int joinAny(List<? extends KFuture<?>> futures) {
+		Lib.assertTrue(!futures.isEmpty());
+
+		final Semaphore anyDone = new Semaphore(0);
+		Runnable signal = new Runnable() {
+			public void run() {
+				anyDone.V();
+			}
+		};
+		for (KFuture<?> future : futures)
+			future.whenComplete(signal);
+
+		anyDone.P();
+
+		int i = 0;
+		for (KFuture<?> future : futures) {
+			if (future.isDone())
+				return i;
+			i++;
+		}
+
+		Lib.assertNotReached();
+		return -1;
+	}
+
+	private boolean done = false;
+	private T value = null;
+	private Exception exception = null;
+	private List<Runnable> callbacks = new LinkedList<Runnable>();
+
+	private Lock lock = new Lock();
+	private Condition2 completed = new Condition2(lock);
+}
@@ -1,5 +1,7 @@
 package nachos.threads;
 
+import java.util.List;
+
 import nachos.machine.*;
 
 /**
@@ -205,12 +207,7 @@ public class KThread {
 
 		currentThread.status = statusFinished;
 
-		while (true) {
-			KThread thread = currentThread.waiterQueue.nextThread();
-			if (thread == null)
-				break;
-			thread.ready();
-		}
+		readyAll(currentThread.waiterQueue.drainAll());
 
 		sleep();
 	}
@@ -284,6 +281,36 @@ public class KThread {
 		Machine.autoGrader().readyThread(this);
 	}
 
+	/**
+	 * Moves all of the specified threads to the ready state and adds them to
+	 * the ready queue in a single batch, in order. Equivalent to calling
+	 * <tt>ready()</tt> on each thread.
+	 *
+	 * @param threads
+	 *            the threads to make ready, typically obtained from
+	 *            <tt>ThreadQueue.drainAll()</tt>.
+	 */
+	public static void readyAll(List<KThread> threads) {
+		Lib.assertTrue(Machine.interrupt().disabled());
+
+		if (threads.isEmpty())
+			return;
+
+		for (KThread thread : threads) {
+			Lib.debug(dbgThread, "Ready thread: " + thread.toString());
+			// the idle thread never blocks, so it is never woken in a batch
+			Lib.assertTrue(thread.status != statusReady
+					&& thread != idleThread);
+
+			thread.status = statusReady;
+		}
+
+		readyQueue.waitForAccess(threads);
+
+		for (KThread thread : threads)
+			Machine.autoGrader().readyThread(thread);
+	}
+
 	/**
 	 * Waits for this thread to finish. If this thread is already finished,
 	 * return immediately. This method must only be called once; the second call
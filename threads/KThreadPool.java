@@ -0,0 +1,280 @@
+package nachos.threads;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import nachos.machine.*;
+
+/**
+ * A set of worker <tt>KThread</tt>s that run short kernel jobs taken from a
+ * shared task queue. Forking a new <tt>KThread</tt> for every job costs a new
+ * TCB (and a new host thread); a pool pays that once per worker instead.
+ *
+ * <p>
+ * The pool starts <i>minThreads</i> workers. Whenever a job is submitted and
+ * there are more queued jobs than idle workers, another worker is started, up
+ * to <i>maxThreads</i>. A pool created with equal limits is therefore fixed
+ * in size. Workers run until <tt>shutdown()</tt> is called.
+ */
+public class KThreadPool {
+	/**
+	 * Allocate a new pool with a fixed number of workers.
+	 *
+	 * @param numThreads
+	 *            the number of workers.
+	 */
+	public KThreadPool(int numThreads) {
+		this(numThreads, numThreads);
+	}
+
+	/**
+	 * Allocate a new elastic pool.
+	 *
+	 * @param minThreads
+	 *            the number of workers to start immediately.
+	 * @param maxThreads
+	 *            the maximum number of workers the pool will grow to.
+	 */
+	public KThreadPool(int minThreads, int maxThreads) {
+		Lib.assertTrue(minThreads >= 0 && maxThreads > 0
+				&& minThreads <= maxThreads);
+
+		this.maxThreads = maxThreads;
+
+		poolLock.acquire();
+		for (int i = 0; i < minThreads; i++)
+			startWorker();
+		poolLock.release();
+	}
+
+	/**
+	 * Queue a job that produces a value.
+	 *
+	 * @param task
+	 *            the job to run.
+	 * @return a future that completes with the job's result.
+	 */
+	public <T> KFuture<T> submit(Callable<T> task) {
+		Lib.assertTrue(task != null);
+
+		Task<T> t = new Task<T>(task);
+
+		poolLock.acquire();
+		Lib.assertTrue(!shutdown);
+		queued++;
+		if (queued > idle && workers.size() < maxThreads)
+			startWorker();
+		poolLock.release();
+
+		tasks.add(t);
+		return t.future;
+	}
+
+	/**
+	 * Queue a job that does not produce a value.
+	 *
+	 * @param task
+	 *            the job to run.
+	 * @return a future that completes with <tt>null</tt> once the job has
+	 *         run.
+	 */
+	public KFuture<Object> submit(final Runnable task) {
+		Lib.assertTrue(task != null);
+
+		return submit(new Callable<Object>() {
+			public Object call() {
+				task.run();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Stop accepting jobs, let the workers finish everything already queued,
+	 * and wait for them to exit.
+	 */
+	public void shutdown() {
+		poolLock.acquire();
+		Lib.assertTrue(!shutdown);
+		shutdown = true;
+		List<KThread> toJoin = new ArrayList<KThread>(workers);
+		poolLock.release();
+
+		for (int i = 0; i < toJoin.size(); i++)
+			tasks.add(stopMarker);
+		for (KThread worker : toJoin)
+			worker.join();
+	}
+
+	/**
+	 * Return the number of workers currently in the pool.
+	 *
+	 * @return the number of workers.
+	 */
+	public int getNumThreads() {
+		poolLock.acquire();
+		int n = workers.size();
+		poolLock.release();
+		return n;
+	}
+
+	private void startWorker() {
+		Lib.assertTrue(poolLock.isHeldByCurrentThread());
+
+		KThread worker = new KThread(new Runnable() {
+			public void run() {
+				runWorker();
+			}
+		});
+		worker.setName("pool worker " + workers.size());
+		workers.add(worker);
+		worker.fork();
+	}
+
+	private void runWorker() {
+		while (true) {
+			poolLock.acquire();
+			idle++;
+			poolLock.release();
+
+			Object next = tasks.removeFirst();
+
+			poolLock.acquire();
+			idle--;
+			if (next != stopMarker)
+				queued--;
+			poolLock.release();
+
+			if (next == stopMarker)
+				return;
+
+			((Runnable) next).run();
+		}
+	}
+
+	private static class Task<T> implements Runnable {
+		Task(Callable<T> callable) {
+			this.callable = callable;
+		}
+
+		public void run() {
+			T result;
+			try {
+				result = callable.call();
+			} catch (Exception e) {
+				future.fail(e);
+				return;
+			}
+			future.complete(result);
+		}
+
+		private Callable<T> callable;
+		private KFuture<T> future = new KFuture<T>();
+	}
+
+	/**
+	 * Test this module, then compare the throughput of forking one
+	 * <tt>KThread</tt> per job against running the same jobs on a pool.
+	 */
+	public static void selfTest() {
+		KThreadPool pool = new KThreadPool(1, 4);
+
+		List<KFuture<Integer>> squares = new ArrayList<KFuture<Integer>>();
+		for (int i = 0; i < 20; i++) {
+			final int n = i;
+			squares.add(pool.submit(new Callable<Integer>() {
+				public Integer call() {
+					KThread.yield();
+					return n * n;
+				}
+			}));
+		}
+		int any = KFuture.joinAny(squares);
+		Lib.assertTrue(squares.get(any).isDone());
+		for (int i = 0; i < 20; i++)
+			Lib.assertTrue(squares.get(i).join() == i * i);
+		Lib.assertTrue(pool.getNumThreads() > 1
+				&& pool.getNumThreads() <= 4);
+
+		KFuture<Integer> failed = pool.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				throw new Exception("expected");
+			}
+		});
+		Lib.assertTrue(failed.join() == null
+				&& failed.getException() != null);
+
+		final int[] called = new int[1];
+		failed.whenComplete(new Runnable() {
+			public void run() {
+				called[0]++;
+			}
+		});
+		Lib.assertTrue(called[0] == 1);
+		pool.shutdown();
+
+		benchmark(1000);
+	}
+
+	private static void benchmark(int numTasks) {
+		final int[] counter = new int[1];
+		Runnable job = new Runnable() {
+			public void run() {
+				counter[0]++;
+			}
+		};
+
+		long startTicks = Machine.timer().getTime();
+		long startNanos = System.nanoTime();
+		// TCB caps the number of live threads, so fork in waves
+		LinkedList<KThread> forked = new LinkedList<KThread>();
+		for (int i = 0; i < numTasks; i++) {
+			KThread t = new KThread(job).setName("bench job");
+			t.fork();
+			forked.add(t);
+			if (forked.size() == benchmarkWave || i == numTasks - 1) {
+				for (KThread f : forked)
+					f.join();
+				forked.clear();
+			}
+		}
+		long forkNanos = System.nanoTime() - startNanos;
+		long forkTicks = Machine.timer().getTime() - startTicks;
+		Lib.assertTrue(counter[0] == numTasks);
+
+		startTicks = Machine.timer().getTime();
+		startNanos = System.nanoTime();
+		KThreadPool pool = new KThreadPool(4);
+		List<KFuture<Object>> futures = new LinkedList<KFuture<Object>>();
+		for (int i = 0; i < numTasks; i++)
+			futures.add(pool.submit(job));
+		for (KFuture<Object> f : futures)
+			f.join();
+		pool.shutdown();
+		long poolNanos = System.nanoTime() - startNanos;
+		long poolTicks = Machine.timer().getTime() - startTicks;
+		Lib.assertTrue(counter[0] == 2 * numTasks);
+
+		System.out.println("KThreadPool benchmark, " + numTasks + " jobs:");
+		System.out.println("\tfork per job: " + forkTicks + " ticks, "
+				+ forkNanos / 1000000 + " ms host");
+		System.out.println("\tpooled (4):   " + poolTicks + " ticks, "
+				+ poolNanos / 1000000 + " ms host");
+	}
+
+	private int maxThreads;
+	private int idle = 0;
+	private int queued = 0;
+	private boolean shutdown = false;
+	private List<KThread> workers = new ArrayList<KThread>();
+
+	private Lock poolLock = new Lock();
+	private SynchList tasks = new SynchList();
+
+	private static final int benchmarkWave = 100;
+
+	/** Queued once per worker by <tt>shutdown()</tt> to make it exit. */
+	private static final Object stopMarker = new Object();
+}
@@ -2,6 +2,8 @@ package nachos.threads;
 
 import nachos.machine.*;
 
+import java.util.LinkedList;
+import java.util.List;
 import java.util.NavigableSet;
 import java.util.Random;
 import java.util.TreeSet;
@@ -144,6 +146,23 @@ public class LotteryScheduler extends PriorityScheduler {
 			update(tmp);
 		}
 
+		/**
+		 * Enqueue all of the threads and recompute the ticket total once,
+		 * rather than once per thread.
+		 */
+		public void waitForAccess(List<KThread> threads) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			int tmp = sumPriority;
+			for (KThread thread : threads) {
+				ThreadState state = getThreadState(thread);
+				state.enqueueTime = enqueueId++;
+				state.waitForAccess(this);
+				waiters.add(state);
+				tmp += state.effectivePriority;
+			}
+			update(tmp);
+		}
+
 		public void acquire(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
 			ThreadState state = getThreadState(thread);
@@ -182,6 +201,29 @@ public class LotteryScheduler extends PriorityScheduler {
 			return thread;
 		}
 
+		/**
+		 * Release every waiter at once. No lottery is held: the threads are
+		 * returned in the order the queue keeps them, most tickets first and
+		 * then by arrival, not in the random order that repeated calls to
+		 * <tt>nextThread()</tt> would give. Nobody becomes the holder.
+		 */
+		public List<KThread> drainAll() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			if (resourceHolder != null) {
+				resourceHolder.removeResource(this);
+				resourceHolder = null;
+			}
+			List<KThread> threads = new LinkedList<KThread>();
+			for (ThreadState state : waiters) {
+				Lib.assertTrue(state.waitingResource == this);
+				state.waitingResource = null;
+				threads.add(state.thread);
+			}
+			waiters.clear();
+			update(0);
+			return threads;
+		}
+
 		/**
 		 * Return the next thread that <tt>nextThread()</tt> would return,
 		 * without modifying the state of this queue.
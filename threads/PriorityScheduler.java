@@ -7,6 +7,8 @@ import java.util.Random;
 import java.util.TreeSet;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * A scheduler that chooses threads based on their priorities.
@@ -145,6 +147,21 @@ public class PriorityScheduler extends Scheduler {
 			update();
 		}
 
+		/**
+		 * Enqueue all of the threads and recompute the donated priority once,
+		 * rather than once per thread.
+		 */
+		public void waitForAccess(List<KThread> threads) {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			for (KThread thread : threads) {
+				ThreadState state = getThreadState(thread);
+				state.enqueueTime = enqueueId++;
+				state.waitForAccess(this);
+				waiters.add(state);
+			}
+			update();
+		}
+
 		public void acquire(KThread thread) {
 			Lib.assertTrue(Machine.interrupt().disabled());
 			ThreadState state = getThreadState(thread);
@@ -170,6 +187,27 @@ public class PriorityScheduler extends Scheduler {
 			return thread;
 		}
 
+		/**
+		 * Release every waiter at once. Nobody becomes the holder, so the
+		 * donation bookkeeping is updated once instead of once per waiter.
+		 */
+		public List<KThread> drainAll() {
+			Lib.assertTrue(Machine.interrupt().disabled());
+			if (resourceHolder != null) {
+				resourceHolder.removeResource(this);
+				resourceHolder = null;
+			}
+			List<KThread> threads = new LinkedList<KThread>();
+			for (ThreadState state : waiters) {
+				Lib.assertTrue(state.waitingResource == this);
+				state.waitingResource = null;
+				threads.add(state.thread);
+			}
+			waiters.clear();
+			update();
+			return threads;
+		}
+
 		/**
 		 * Return the next thread that <tt>nextThread()</tt> would return,
 		 * without modifying the state of this queue.
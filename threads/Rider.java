@@ -5,14 +5,30 @@ import nachos.machine.*;
 /**
  * A single rider. Each rider accesses the elevator bank through an
  * instance of <tt>RiderControls</tt>.
+ *
+ * <p>
+ * This rider makes its stops by calling elevators with the direction
+ * buttons, boarding only elevators that display its direction, and getting
+ * off at the floor it selected. If it cannot board (for example because the
+ * elevator is full), it presses the button again once the doors close.
  */
 public class Rider implements RiderInterface {
     /**
      * Allocate a new rider.
      */
     public Rider() {
+	this(null);
     }
     
+    /**
+     * Allocate a new rider that records the timing of each of its trips.
+     *
+     * @param	stats	where to record trips, or <tt>null</tt>.
+     */
+    public Rider(RiderStats stats) {
+	this.stats = stats;
+    }
+
     /**
      * Initialize this rider. The rider will access the elevator bank through
      * <i>controls</i>, and the rider will make stops at different floors as
@@ -28,6 +44,16 @@ public class Rider implements RiderInterface {
      *				below.
      */
     public void initialize(RiderControls controls, int[] stops) {
+	this.controls = controls;
+	this.stops = stops;
+
+	eventWait = new Semaphore(0);
+
+	controls.setInterruptHandler(new Runnable() {
+	    public void run() {
+		eventWait.V();
+	    }
+	});
     }
 
     /**
@@ -48,5 +74,76 @@ public class Rider implements RiderInterface {
      * <tt>controls.finish()</tt> when the rider is finished.
      */
     public void run() {
+	for (int i = 0; i < stops.length; i++) {
+	    int from = controls.getFloor();
+	    if (stops[i] != from)
+		ride(from, stops[i]);
+	}
+
+	controls.finish();
+	Lib.assertNotReached();
     }
+
+    private void ride(int from, int to) {
+	int direction = to > from ? dirUp : dirDown;
+	long pressed = Machine.timer().getTime();
+
+	board(direction);
+	long entered = Machine.timer().getTime();
+
+	controls.pressFloorButton(to);
+
+	while (true) {
+	    RiderEvent e = getNextEvent();
+	    if (e.event == RiderEvent.eventDoorsOpened && e.floor == to
+		    && controls.exitElevator(to))
+		break;
+	}
+
+	if (stats != null)
+	    stats.recordTrip(entered - pressed, Machine.timer().getTime()
+		    - entered);
+    }
+
+    /**
+     * Call an elevator going in the specified direction and get on it.
+     *
+     * @return	the elevator boarded.
+     */
+    private int board(int direction) {
+	while (true) {
+	    if (!controls.pressDirectionButton(direction == dirUp)) {
+		// an elevator going our way is already open here
+		for (int i = 0; i < controls.getNumElevators(); i++) {
+		    if (controls.getDirectionDisplay(i) == direction
+			    && controls.enterElevator(i))
+			return i;
+		}
+	    }
+
+	    // wait for a matching elevator, or for doors to close on us
+	    while (true) {
+		RiderEvent e = getNextEvent();
+		if ((e.event == RiderEvent.eventDoorsOpened
+			|| e.event == RiderEvent.eventDirectionChanged)
+			&& e.direction == direction
+			&& controls.enterElevator(e.elevator))
+		    return e.elevator;
+		if (e.event == RiderEvent.eventDoorsClosed)
+		    break;
+	    }
+	}
+    }
+
+    private RiderEvent getNextEvent() {
+	RiderEvent event;
+	while ((event = controls.getNextEvent()) == null)
+	    eventWait.P();
+	return event;
+    }
+
+    private RiderControls controls;
+    private int[] stops;
+    private Semaphore eventWait;
+    private RiderStats stats;
 }
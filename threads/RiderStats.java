@@ -0,0 +1,108 @@
+package nachos.threads;
+
+import java.util.Arrays;
+
+import nachos.machine.*;
+
+/**
+ * Collects per-trip timings from <tt>Rider</tt>s: how long a rider waited
+ * between pressing a direction button and entering an elevator, and how long
+ * it then rode before getting off. All times are in clock ticks.
+ *
+ * <p>
+ * Riders only run one at a time in kernel code, so no locking is needed.
+ */
+public class RiderStats {
+	/**
+	 * Allocate a new, empty set of statistics.
+	 */
+	public RiderStats() {
+	}
+
+	/**
+	 * Record one completed trip.
+	 *
+	 * @param waitTicks
+	 *            ticks from pressing the direction button to entering.
+	 * @param travelTicks
+	 *            ticks from entering to exiting.
+	 */
+	public void recordTrip(long waitTicks, long travelTicks) {
+		Lib.assertTrue(waitTicks >= 0 && travelTicks >= 0);
+
+		if (numTrips == waits.length) {
+			waits = Arrays.copyOf(waits, numTrips * 2);
+			travels = Arrays.copyOf(travels, numTrips * 2);
+		}
+		waits[numTrips] = waitTicks;
+		travels[numTrips] = travelTicks;
+		numTrips++;
+	}
+
+	/**
+	 * Return the number of trips recorded.
+	 *
+	 * @return the number of riders delivered.
+	 */
+	public int getNumTrips() {
+		return numTrips;
+	}
+
+	/**
+	 * Return a percentile of the recorded wait times.
+	 *
+	 * @param p
+	 *            the percentile, between 0 and 100.
+	 * @return the wait time at that percentile, or 0 if nothing was recorded.
+	 */
+	public long waitPercentile(double p) {
+		return percentile(waits, p);
+	}
+
+	/**
+	 * Return a percentile of the recorded travel times.
+	 *
+	 * @param p
+	 *            the percentile, between 0 and 100.
+	 * @return the travel time at that percentile, or 0 if nothing was
+	 *         recorded.
+	 */
+	public long travelPercentile(double p) {
+		return percentile(travels, p);
+	}
+
+	private long percentile(long[] samples, double p) {
+		Lib.assertTrue(p >= 0 && p <= 100);
+
+		if (numTrips == 0)
+			return 0;
+
+		long[] sorted = Arrays.copyOf(samples, numTrips);
+		Arrays.sort(sorted);
+
+		// nearest-rank method
+		int rank = (int) Math.ceil(p / 100 * numTrips);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * Print the p50, p95 and p99 wait and travel times, and the throughput
+	 * over the specified simulated time.
+	 *
+	 * @param ticks
+	 *            the length of the run in ticks.
+	 */
+	public void print(long ticks) {
+		System.out.println("\tdelivered " + numTrips + " riders in " + ticks
+				+ " ticks (" + (ticks == 0 ? 0 : numTrips * 1000000L / ticks)
+				+ " per million ticks)");
+		System.out.println("\twait   p50 " + waitPercentile(50) + ", p95 "
+				+ waitPercentile(95) + ", p99 " + waitPercentile(99));
+		System.out.println("\ttravel p50 " + travelPercentile(50) + ", p95 "
+				+ travelPercentile(95) + ", p99 " + travelPercentile(99));
+	}
+
+	private int numTrips = 0;
+	private long[] waits = new long[16];
+	private long[] travels = new long[16];
+}
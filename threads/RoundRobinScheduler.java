@@ -4,6 +4,7 @@ import nachos.machine.*;
 
 import java.util.LinkedList;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * A round-robin scheduler tracks waiting threads in FIFO queues, implemented
@@ -58,6 +59,30 @@ public class RoundRobinScheduler extends Scheduler {
 	    return (KThread) waitQueue.removeFirst();
 	}
 
+	/**
+	 * Append all of the threads to the end of the queue.
+	 *
+	 * @param	threads	the threads to append, in order.
+	 */
+	public void waitForAccess(List<KThread> threads) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    waitQueue.addAll(threads);
+	}
+
+	/**
+	 * Empty the queue in one step.
+	 *
+	 * @return	the threads that were on the queue, first one first.
+	 */
+	public List<KThread> drainAll() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    LinkedList<KThread> threads = waitQueue;
+	    waitQueue = new LinkedList<KThread>();
+	    return threads;
+	}
+
 	/**
 	 * The specified thread has received exclusive access, without using
 	 * <tt>waitForAccess()</tt> or <tt>nextThread()</tt>. Assert that no
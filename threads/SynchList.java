@@ -1,5 +1,6 @@
 package nachos.threads;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import nachos.machine.*;
 import nachos.threads.*;
@@ -9,17 +10,33 @@ import nachos.threads.*;
  */
 public class SynchList {
     /**
-     * Allocate a new synchronized queue.
+     * Allocate a new synchronized queue with no limit on its length.
      */
     public SynchList() {
+	this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Allocate a new synchronized queue that holds at most <i>capacity</i>
+     * objects. Once the queue is full, <tt>add()</tt> blocks and
+     * <tt>offer()</tt> fails until a consumer removes something.
+     *
+     * @param	capacity	the maximum number of objects in the queue.
+     */
+    public SynchList(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	this.capacity = capacity;
 	list = new LinkedList<Object>();
 	lock = new Lock();
 	listEmpty = new Condition(lock);
+	listFull = new Condition(lock);
     }
 
     /**
-     * Add the specified object to the end of the queue. If another thread is
-     * waiting in <tt>removeFirst()</tt>, it is woken up.
+     * Add the specified object to the end of the queue, blocking until there
+     * is room if the queue is full. If another thread is waiting in
+     * <tt>removeFirst()</tt>, it is woken up.
      *
      * @param	o	the object to add. Must not be <tt>null</tt>.
      */
@@ -27,11 +44,38 @@ public class SynchList {
 	Lib.assertTrue(o != null);
 	
 	lock.acquire();
+	while (list.size() >= capacity)
+	    listFull.sleep();
 	list.add(o);
 	listEmpty.wake();
 	lock.release();
     }
 
+    /**
+     * Add the specified object to the end of the queue if there is room,
+     * without blocking. A <tt>false</tt> return is the backpressure signal:
+     * the producer should drop or defer the object.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if the object was added, or <tt>false</tt> if
+     *		the queue is full.
+     */
+    public boolean offer(Object o) {
+	Lib.assertTrue(o != null);
+
+	boolean added;
+
+	lock.acquire();
+	added = list.size() < capacity;
+	if (added) {
+	    list.add(o);
+	    listEmpty.wake();
+	}
+	lock.release();
+
+	return added;
+    }
+
     /**
      * Remove an object from the front of the queue, blocking until the queue
      * is non-empty if necessary.
@@ -45,11 +89,83 @@ public class SynchList {
 	while (list.isEmpty())
 	    listEmpty.sleep();
 	o = list.removeFirst();
+	listFull.wake();
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue without blocking.
+     *
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue is empty.
+     */
+    public Object tryRemoveFirst() {
+	Object o = null;
+
+	lock.acquire();
+	if (!list.isEmpty()) {
+	    o = list.removeFirst();
+	    listFull.wake();
+	}
 	lock.release();
 
 	return o;
     }
 
+    /**
+     * Move up to <i>max</i> objects from the front of the queue into
+     * <i>c</i>, in order, without blocking. All of them are taken under a
+     * single acquisition of the queue lock.
+     *
+     * @param	c	the collection to add the removed objects to.
+     * @param	max	the maximum number of objects to remove.
+     * @return	the number of objects moved.
+     */
+    public int drainTo(Collection<Object> c, int max) {
+	Lib.assertTrue(c != null && max >= 0);
+
+	int n = 0;
+
+	lock.acquire();
+	while (n < max && !list.isEmpty()) {
+	    c.add(list.removeFirst());
+	    n++;
+	}
+	if (n > 0)
+	    listFull.wakeAll();
+	lock.release();
+
+	return n;
+    }
+
+    /**
+     * Return the number of objects currently in the queue. The value may be
+     * stale as soon as it is returned; use it only as a hint.
+     *
+     * @return	the length of the queue.
+     */
+    public int size() {
+	int n;
+
+	lock.acquire();
+	n = list.size();
+	lock.release();
+
+	return n;
+    }
+
+    /**
+     * Test whether the queue has reached its capacity, so that the next
+     * <tt>add()</tt> would block and the next <tt>offer()</tt> would fail.
+     *
+     * @return	<tt>true</tt> if the queue is full.
+     */
+    public boolean isFull() {
+	return size() >= capacity;
+    }
+
     private static class PingTest implements Runnable {
 	PingTest(SynchList ping, SynchList pong) {
 	    this.ping = ping;
@@ -79,10 +195,40 @@ public class SynchList {
 	    ping.add(o);
 	    Lib.assertTrue(pong.removeFirst() == o);
 	}
+
+	// a bounded queue must block the producer and hand over in batches
+	final SynchList bounded = new SynchList(4);
+	KThread producer = new KThread(new Runnable() {
+		public void run() {
+		    for (int i=0; i<16; i++)
+			bounded.add(Integer.valueOf(i));
+		}
+	    }).setName("producer");
+	producer.fork();
+
+	LinkedList<Object> batch = new LinkedList<Object>();
+	int expected = 0;
+	while (expected < 16) {
+	    Lib.assertTrue(bounded.size() <= 4);
+	    if (bounded.drainTo(batch, 3) == 0) {
+		batch.add(bounded.removeFirst());
+	    }
+	    while (!batch.isEmpty())
+		Lib.assertTrue(((Integer) batch.removeFirst()).intValue() ==
+			       expected++);
+	}
+	producer.join();
+
+	Lib.assertTrue(bounded.tryRemoveFirst() == null);
+	for (int i=0; i<4; i++)
+	    Lib.assertTrue(bounded.offer(Integer.valueOf(i)));
+	Lib.assertTrue(bounded.isFull() && !bounded.offer(Integer.valueOf(4)));
     }
 
+    private int capacity;
     private LinkedList<Object> list;
     private Lock lock;
     private Condition listEmpty;
+    private Condition listFull;
 }
 
@@ -1,5 +1,8 @@
 package nachos.threads;
 
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * Schedules access to some sort of resource with limited access constraints. A
  * thread queue can be used to share this limited access among multiple
@@ -61,6 +64,19 @@ public abstract class ThreadQueue {
      */
     public abstract void waitForAccess(KThread thread);
 
+    /**
+     * Notify this thread queue that each of the specified threads is waiting
+     * for access, in order. Equivalent to calling <tt>waitForAccess()</tt> on
+     * each thread, but lets a queue that keeps derived state (such as donated
+     * priority) recompute it once for the whole batch.
+     *
+     * @param	threads	the threads waiting for access.
+     */
+    public void waitForAccess(List<KThread> threads) {
+	for (KThread thread : threads)
+	    waitForAccess(thread);
+    }
+
     /**
      * Notify this thread queue that another thread can receive access. Choose
      * and return the next thread to receive access, or <tt>null</tt> if there
@@ -76,6 +92,27 @@ public abstract class ThreadQueue {
      */
     public abstract KThread nextThread();
 
+    /**
+     * Remove every thread waiting on this queue and return them. A queue that
+     * chooses deterministically returns them in the order
+     * <tt>nextThread()</tt> would have chosen them; one that chooses at
+     * random may return them in any order. Unlike repeated calls to
+     * <tt>nextThread()</tt>, none of the returned threads is given access;
+     * this is meant for broadcasts, where all waiters are released together
+     * and then compete for the resource again.
+     *
+     * @return	the threads that were waiting, possibly none.
+     */
+    public List<KThread> drainAll() {
+	List<KThread> threads = new LinkedList<KThread>();
+	KThread thread;
+
+	while ((thread = nextThread()) != null)
+	    threads.add(thread);
+
+	return threads;
+    }
+
     /**
      * Notify this thread queue that a thread has received access, without
      * going through <tt>request()</tt> and <tt>nextThread()</tt>. For example,
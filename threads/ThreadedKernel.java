@@ -62,7 +62,10 @@ public class ThreadedKernel extends Kernel {
 		// }
 		// KThread.selfTest2();
 		// Condition2.selfTest();
+		// Condition2.selfTest2();
 		// Alarm.selfTest();
+		// KThreadPool.selfTest();
+		// ElevatorController.selfTest();
 		// System.out.println("selfTest end");
 	}
 
@@ -95,4 +98,5 @@ public class ThreadedKernel extends Kernel {
 	private static Communicator dummy5 = null;
 	private static Rider dummy6 = null;
 	private static ElevatorController dummy7 = null;
+	private static KThreadPool dummy8 = null;
 }
@@ -0,0 +1,193 @@
+package nachos.userprog;
+
+import java.util.concurrent.Callable;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * Runs I/O requests for user processes on a pool of kernel worker threads,
+ * so that the process that submitted a request can keep running while the
+ * request waits on the file system.
+ *
+ * <p>
+ * The pool starts with no workers and grows, up to a limit, whenever more
+ * requests are waiting than workers are idle, so a request blocked on a pipe
+ * does not keep the requests behind it waiting. At most <i>capacity</i>
+ * requests may wait to start. Beyond that, <tt>submit()</tt> refuses the
+ * request rather than blocking, so that submitting never makes the caller
+ * wait. A request that has not started yet can be cancelled. Each request
+ * records when it was submitted, started and finished, and the service keeps
+ * totals over every request it has run.
+ */
+public class AsyncIO {
+	/**
+	 * Allocate a new I/O service. Worker threads are started as requests
+	 * arrive.
+	 *
+	 * @param maxWorkers
+	 *            the most worker threads the pool may grow to.
+	 * @param capacity
+	 *            the most requests that may wait for a worker.
+	 */
+	public AsyncIO(int maxWorkers, int capacity) {
+		Lib.assertTrue(maxWorkers > 0 && capacity > 0);
+
+		this.capacity = capacity;
+		pool = new KThreadPool(0, maxWorkers);
+	}
+
+	/**
+	 * Queue a request.
+	 *
+	 * @param operation
+	 *            the I/O to perform, returning the syscall result.
+	 * @return the request, or <tt>null</tt> if too many requests are waiting.
+	 */
+	public Request submit(Callable<Integer> operation) {
+		if (numWaiting >= capacity)
+			return null;
+
+		final Request request = new Request(operation);
+		numWaiting++;
+		request.future = pool.submit(new Callable<Integer>() {
+			public Integer call() {
+				return run(request);
+			}
+		});
+
+		return request;
+	}
+
+	private int run(Request request) {
+		numWaiting--;
+		if (request.cancelled)
+			return -1;
+
+		request.running = true;
+		request.started = Machine.timer().getTime();
+		int result;
+		try {
+			result = request.operation.call();
+		} catch (Exception e) {
+			result = -1;
+		}
+		request.finished = Machine.timer().getTime();
+
+		numCompleted++;
+		totalLatency += request.getLatency();
+		maxLatency = Math.max(maxLatency, request.getLatency());
+
+		return result;
+	}
+
+	/**
+	 * Return the number of requests completed.
+	 *
+	 * @return the number of requests completed.
+	 */
+	public int getNumCompleted() {
+		return numCompleted;
+	}
+
+	/**
+	 * Return the mean ticks from submission to completion over every
+	 * completed request.
+	 *
+	 * @return the mean latency, or 0 if nothing has completed.
+	 */
+	public long getMeanLatency() {
+		return numCompleted == 0 ? 0 : totalLatency / numCompleted;
+	}
+
+	/**
+	 * Return the longest time any request took from submission to
+	 * completion.
+	 *
+	 * @return the maximum latency.
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * Return the number of worker threads started so far.
+	 *
+	 * @return the number of workers.
+	 */
+	public int getNumWorkers() {
+		return pool.getNumThreads();
+	}
+
+	/**
+	 * One queued I/O request.
+	 */
+	public static class Request {
+		private Request(Callable<Integer> operation) {
+			this.operation = operation;
+			submitted = Machine.timer().getTime();
+		}
+
+		/**
+		 * Return whether the request has completed.
+		 *
+		 * @return <tt>true</tt> if the request has completed.
+		 */
+		public boolean isDone() {
+			return future.isDone();
+		}
+
+		/**
+		 * Wait for the request to complete.
+		 *
+		 * @return the result of the operation, or -1 if it was cancelled.
+		 */
+		public int join() {
+			return future.join();
+		}
+
+		/**
+		 * Cancel the request if no worker has started it yet. A cancelled
+		 * request completes with -1 without being run.
+		 *
+		 * @return <tt>true</tt> if the request will not be run.
+		 */
+		public boolean cancel() {
+			if (!running)
+				cancelled = true;
+
+			return cancelled;
+		}
+
+		/**
+		 * Return the ticks the request spent waiting for a worker.
+		 *
+		 * @return the queueing delay, once the request has completed.
+		 */
+		public long getQueueTime() {
+			Lib.assertTrue(isDone());
+			return started - submitted;
+		}
+
+		/**
+		 * Return the ticks from submission to completion.
+		 *
+		 * @return the latency, once the request has completed.
+		 */
+		public long getLatency() {
+			return finished - submitted;
+		}
+
+		private Callable<Integer> operation;
+		private KFuture<Integer> future;
+		private boolean running = false, cancelled = false;
+		private long submitted, started, finished;
+	}
+
+	private KThreadPool pool;
+	private int capacity;
+	private int numWaiting = 0;
+
+	private int numCompleted = 0;
+	private long totalLatency = 0, maxLatency = 0;
+}
@@ -0,0 +1,266 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+/**
+ * A process's file descriptors. Each descriptor refers to an open file
+ * description: the <tt>OpenFile</tt> itself, whose position is shared by
+ * every descriptor that refers to it. <tt>dup()</tt>, <tt>dup2()</tt> and
+ * inheritance across <tt>exec()</tt> add references to an existing
+ * description, and the file is only closed when its last reference goes
+ * away.
+ *
+ * <p>
+ * Free descriptors are tracked in a bitmap, one bit per descriptor (set when
+ * the descriptor is free), so that finding the lowest free descriptor skips
+ * 64 descriptors in use at a time. The table starts small and doubles as
+ * descriptors are needed, up to a per-process limit.
+ *
+ * <p>
+ * A table is only used by the threads of its process, and descriptions are
+ * only changed without blocking, so no locking is needed.
+ */
+public class DescriptorTable {
+	/**
+	 * Allocate a new, empty table.
+	 *
+	 * @param limit
+	 *            the most descriptors the table may hold.
+	 */
+	public DescriptorTable(int limit) {
+		Lib.assertTrue(limit > 0);
+
+		this.limit = limit;
+		resize(Math.min(initialCapacity, limit));
+	}
+
+	/**
+	 * Allocate a new table referring to the same descriptions, under the same
+	 * descriptors, as another table.
+	 *
+	 * @param table
+	 *            the table to copy.
+	 */
+	public DescriptorTable(DescriptorTable table) {
+		limit = table.limit;
+		resize(table.descriptions.length);
+
+		for (int fd = 0; fd < descriptions.length; fd++) {
+			Description d = table.descriptions[fd];
+			if (d != null) {
+				d.references++;
+				install(fd, d);
+			}
+		}
+	}
+
+	/**
+	 * Give an open file the lowest free descriptor.
+	 *
+	 * @param file
+	 *            the file.
+	 * @return the descriptor, or -1 if the table is at its limit.
+	 */
+	public int open(OpenFile file) {
+		int fd = lowestFree();
+		if (fd != -1)
+			install(fd, new Description(file));
+
+		return fd;
+	}
+
+	/**
+	 * Return the file a descriptor refers to.
+	 *
+	 * @param fd
+	 *            the descriptor.
+	 * @return the file, or <tt>null</tt> if <i>fd</i> is not open.
+	 */
+	public OpenFile get(int fd) {
+		if (fd < 0 || fd >= descriptions.length || descriptions[fd] == null)
+			return null;
+
+		return descriptions[fd].file;
+	}
+
+	/**
+	 * Free a descriptor.
+	 *
+	 * @param fd
+	 *            an open descriptor.
+	 * @return the file, if this was its last reference and the caller should
+	 *         close it, or <tt>null</tt> otherwise.
+	 */
+	public OpenFile close(int fd) {
+		Lib.assertTrue(get(fd) != null);
+
+		Description d = descriptions[fd];
+		descriptions[fd] = null;
+		free[fd / 64] |= 1L << (fd % 64);
+		if (fd / 64 < rover)
+			rover = fd / 64;
+		numOpen--;
+
+		d.references--;
+		return d.references == 0 ? d.file : null;
+	}
+
+	/**
+	 * Give the description an open descriptor refers to another descriptor,
+	 * the lowest one free.
+	 *
+	 * @param fd
+	 *            an open descriptor.
+	 * @return the new descriptor, or -1 if the table is at its limit.
+	 */
+	public int dup(int fd) {
+		Lib.assertTrue(get(fd) != null);
+
+		int newfd = lowestFree();
+		if (newfd != -1) {
+			descriptions[fd].references++;
+			install(newfd, descriptions[fd]);
+		}
+
+		return newfd;
+	}
+
+	/**
+	 * Give the description an open descriptor refers to a particular free
+	 * descriptor.
+	 *
+	 * @param fd
+	 *            an open descriptor.
+	 * @param newfd
+	 *            a free descriptor below the limit.
+	 */
+	public void dup2(int fd, int newfd) {
+		Lib.assertTrue(get(fd) != null && get(newfd) == null);
+		Lib.assertTrue(newfd >= 0 && newfd < limit);
+
+		int capacity = descriptions.length;
+		while (newfd >= capacity)
+			capacity *= 2;
+		if (capacity > descriptions.length)
+			resize(Math.min(capacity, limit));
+
+		descriptions[fd].references++;
+		install(newfd, descriptions[fd]);
+	}
+
+	/**
+	 * Return the number of descriptors that are open.
+	 *
+	 * @return the number of open descriptors.
+	 */
+	public int getNumOpen() {
+		return numOpen;
+	}
+
+	/**
+	 * Return the number of descriptors the table has room for without
+	 * growing.
+	 *
+	 * @return the current capacity.
+	 */
+	public int getCapacity() {
+		return descriptions.length;
+	}
+
+	/**
+	 * Return the most descriptors the table may hold. Every descriptor is
+	 * below this.
+	 *
+	 * @return the limit.
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	private void install(int fd, Description d) {
+		descriptions[fd] = d;
+		free[fd / 64] &= ~(1L << (fd % 64));
+		numOpen++;
+	}
+
+	private int lowestFree() {
+		if (numOpen == descriptions.length) {
+			if (descriptions.length == limit)
+				return -1;
+			resize(Math.min(descriptions.length * 2, limit));
+		}
+
+		while (free[rover] == 0)
+			rover++;
+
+		return rover * 64 + Long.numberOfTrailingZeros(free[rover]);
+	}
+
+	private void resize(int capacity) {
+		Description[] oldDescriptions = descriptions;
+		descriptions = new Description[capacity];
+		free = new long[(capacity + 63) / 64];
+
+		for (int i = 0; i < free.length; i++)
+			free[i] = -1L;
+		if (capacity % 64 != 0)
+			free[free.length - 1] = (1L << (capacity % 64)) - 1;
+
+		if (oldDescriptions != null) {
+			for (int fd = 0; fd < oldDescriptions.length; fd++) {
+				if (oldDescriptions[fd] != null) {
+					descriptions[fd] = oldDescriptions[fd];
+					free[fd / 64] &= ~(1L << (fd % 64));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test that descriptors are handed out lowest first, shared by
+	 * <tt>dup()</tt>, and that the table grows up to its limit.
+	 */
+	public static void selfTest() {
+		DescriptorTable table = new DescriptorTable(100);
+		OpenFile a = new OpenFile(null, "a"), b = new OpenFile(null, "b");
+
+		Lib.assertTrue(table.open(a) == 0 && table.open(b) == 1);
+		Lib.assertTrue(table.dup(0) == 2 && table.get(2) == a);
+		Lib.assertTrue(table.close(0) == null && table.get(0) == null);
+		Lib.assertTrue(table.open(b) == 0);
+		Lib.assertTrue(table.close(2) == a);
+
+		table.dup2(1, 70);
+		Lib.assertTrue(table.get(70) == b && table.getCapacity() == 100);
+		Lib.assertTrue(table.close(1) == null && table.close(70) == b);
+		Lib.assertTrue(table.close(0) == b);
+
+		for (int fd = 0; fd < 100; fd++)
+			Lib.assertTrue(table.open(a) == fd);
+		Lib.assertTrue(table.open(a) == -1 && table.getNumOpen() == 100);
+
+		DescriptorTable copy = new DescriptorTable(table);
+		for (int fd = 0; fd < 100; fd++)
+			Lib.assertTrue(table.close(fd) == null);
+		Lib.assertTrue(copy.close(42) == a && copy.getNumOpen() == 99);
+	}
+
+	private static class Description {
+		Description(OpenFile file) {
+			this.file = file;
+		}
+
+		OpenFile file;
+		int references = 1;
+	}
+
+	private Description[] descriptions = null;
+	private long[] free;
+	private int numOpen = 0;
+	private int limit;
+
+	/** The lowest word of <tt>free</tt> that may have a free descriptor. */
+	private int rover = 0;
+
+	private static final int initialCapacity = 16;
+}
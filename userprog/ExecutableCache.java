@@ -0,0 +1,425 @@
+package nachos.userprog;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A cache of parsed executables: the entry point, the section table and the
+ * contents of each initialized section. A process loading a cached executable
+ * copies its pages from memory instead of parsing the COFF headers and reading
+ * every page through the file system again.
+ *
+ * <p>
+ * Images are keyed by file name and validated against the file's current
+ * length; the kernel also invalidates an image whenever the file is
+ * recreated, written or unlinked. Only executables that are running or cached
+ * are tracked, so a change to any other file costs a single lookup. The cache
+ * holds at most <i>budget</i> bytes of section contents and evicts the least
+ * recently used images to stay within it.
+ */
+public class ExecutableCache {
+	/**
+	 * Allocate a new, empty cache.
+	 *
+	 * @param budget
+	 *            the most section bytes the cache may hold.
+	 */
+	public ExecutableCache(int budget) {
+		Lib.assertTrue(budget >= 0);
+
+		this.budget = budget;
+	}
+
+	/**
+	 * Look up an executable and mark it as recently used. An image whose
+	 * length does not match is discarded.
+	 *
+	 * @param name
+	 *            the name of the executable file.
+	 * @param length
+	 *            the current length of the file.
+	 * @return the cached image, or <tt>null</tt> if there is none.
+	 */
+	public Image get(String name, int length) {
+		lock.acquire();
+		Image image = images.get(name);
+		if (image != null && image.length != length) {
+			remove(name);
+			image = null;
+		}
+		if (image != null)
+			hits++;
+		else
+			misses++;
+		lock.release();
+
+		return image;
+	}
+
+	/**
+	 * Note that a process is running an executable, so that changes to the
+	 * file are tracked until it calls <tt>release()</tt>.
+	 *
+	 * @param name
+	 *            the name of the executable file.
+	 * @return the version of the file, to build an image with. Contents read
+	 *         from the file while its version stays the same are consistent
+	 *         with each other.
+	 */
+	public int acquire(String name) {
+		lock.acquire();
+		Executable executable = executables.get(name);
+		if (executable == null) {
+			executable = new Executable(nextVersion++);
+			executables.put(name, executable);
+		}
+		executable.users++;
+		lock.release();
+
+		return executable.version;
+	}
+
+	/**
+	 * Note that a process is no longer running an executable.
+	 *
+	 * @param name
+	 *            the name of the executable file.
+	 */
+	public void release(String name) {
+		lock.acquire();
+		executables.get(name).users--;
+		untrack(name);
+		lock.release();
+	}
+
+	/**
+	 * Return whether an image would be cached if it were complete: it fits in
+	 * the budget, the file has not changed since the image was started, and
+	 * no other image of the file is cached already.
+	 *
+	 * @param image
+	 *            the image.
+	 * @return <tt>true</tt> if completing the image is worthwhile.
+	 */
+	public boolean wants(Image image) {
+		lock.acquire();
+		boolean wanted = image.size <= budget
+				&& image.version == getVersion(image.name)
+				&& !images.containsKey(image.name);
+		lock.release();
+
+		return wanted;
+	}
+
+	/**
+	 * Add a fully loaded image, evicting least recently used images to make
+	 * room for it. Images larger than the whole budget, and images of a file
+	 * that has changed since they were started, are not cached: their pages
+	 * may mix the old and new contents of the file.
+	 *
+	 * @param image
+	 *            the image to add.
+	 */
+	public void put(Image image) {
+		Lib.assertTrue(image.isComplete());
+
+		if (image.size > budget)
+			return;
+
+		lock.acquire();
+		if (image.version != getVersion(image.name)) {
+			lock.release();
+			return;
+		}
+		remove(image.name);
+		images.put(image.name, image);
+		size += image.size;
+
+		Iterator<Image> it = images.values().iterator();
+		while (size > budget) {
+			Image eldest = it.next();
+			it.remove();
+			size -= eldest.size;
+			untrack(eldest.name);
+			evictions++;
+		}
+		lock.release();
+	}
+
+	/**
+	 * Forget the image of a file that has changed, and give it a new version,
+	 * so that images started before the change are not cached either.
+	 *
+	 * @param name
+	 *            the name of the file.
+	 * @return <tt>true</tt> if the file is running or was cached.
+	 */
+	public boolean invalidate(String name) {
+		lock.acquire();
+		Executable executable = executables.get(name);
+		if (executable != null) {
+			executable.version = nextVersion++;
+			remove(name);
+		}
+		lock.release();
+
+		return executable != null;
+	}
+
+	private int getVersion(String name) {
+		Executable executable = executables.get(name);
+		return executable == null ? -1 : executable.version;
+	}
+
+	private void remove(String name) {
+		Image old = images.remove(name);
+		if (old != null)
+			size -= old.size;
+		untrack(name);
+	}
+
+	// stop tracking a file once it is neither running nor cached
+	private void untrack(String name) {
+		Executable executable = executables.get(name);
+		if (executable != null && executable.users == 0
+				&& !images.containsKey(name))
+			executables.remove(name);
+	}
+
+	/**
+	 * Return the number of section bytes currently cached.
+	 *
+	 * @return the cache size in bytes.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Return the number of lookups that found a valid image.
+	 *
+	 * @return the number of hits.
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of lookups that did not.
+	 *
+	 * @return the number of misses.
+	 */
+	public int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Return the number of images evicted to stay within the budget.
+	 *
+	 * @return the number of evictions.
+	 */
+	public int getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * The parsed contents of an executable. An image built from a
+	 * <tt>Coff</tt> starts out with its section table only; its pages are
+	 * captured as they are loaded, and it can be cached once every page has
+	 * been captured.
+	 */
+	public static class Image {
+		/**
+		 * Build an image with the section table of a parsed executable.
+		 *
+		 * @param name
+		 *            the name of the executable file.
+		 * @param length
+		 *            the length of the file.
+		 * @param version
+		 *            the version of the file, from <tt>acquire()</tt>.
+		 * @param coff
+		 *            the parsed executable.
+		 */
+		public Image(String name, int length, int version, Coff coff) {
+			this.name = name;
+			this.length = length;
+			this.version = version;
+			entryPoint = coff.getEntryPoint();
+
+			sections = new Section[coff.getNumSections()];
+			for (int s = 0; s < sections.length; s++) {
+				sections[s] = new Section(coff.getSection(s));
+				if (sections[s].data != null) {
+					size += sections[s].data.length;
+					missing += sections[s].numPages;
+				}
+			}
+		}
+
+		/**
+		 * Return the program's entry point.
+		 *
+		 * @return the entry point.
+		 */
+		public int getEntryPoint() {
+			return entryPoint;
+		}
+
+		/**
+		 * Return the number of sections.
+		 *
+		 * @return the number of sections.
+		 */
+		public int getNumSections() {
+			return sections.length;
+		}
+
+		/**
+		 * Return a section.
+		 *
+		 * @param s
+		 *            the section number.
+		 * @return the section.
+		 */
+		public Section getSection(int s) {
+			return sections[s];
+		}
+
+		/**
+		 * Return whether every page of every initialized section has been
+		 * captured.
+		 *
+		 * @return <tt>true</tt> if the image is complete.
+		 */
+		public boolean isComplete() {
+			return missing == 0;
+		}
+
+		private String name;
+		private int length, version;
+		private int entryPoint;
+		private Section[] sections;
+		private int size = 0;
+		private int missing = 0;
+
+		/**
+		 * One section of an image.
+		 */
+		public class Section {
+			private Section(CoffSection section) {
+				name = section.getName();
+				firstVPN = section.getFirstVPN();
+				numPages = section.getLength();
+				readOnly = section.isReadOnly();
+
+				// uninitialized sections are all zero, so there is nothing to keep
+				if (section.isInitialzed()) {
+					data = new byte[numPages * pageSize];
+					captured = new boolean[numPages];
+				}
+			}
+
+			public String getName() {
+				return name;
+			}
+
+			public int getFirstVPN() {
+				return firstVPN;
+			}
+
+			public int getLength() {
+				return numPages;
+			}
+
+			public boolean isReadOnly() {
+				return readOnly;
+			}
+
+			/**
+			 * Return whether a page is available from the image.
+			 *
+			 * @param spn
+			 *            the page number within this section.
+			 * @return <tt>true</tt> if <tt>loadPage()</tt> can be used.
+			 */
+			public boolean hasPage(int spn) {
+				return data == null || captured[spn];
+			}
+
+			/**
+			 * Copy a page from the image into physical memory.
+			 *
+			 * @param spn
+			 *            the page number within this section.
+			 * @param ppn
+			 *            the physical page to load into.
+			 */
+			public void loadPage(int spn, int ppn) {
+				Lib.assertTrue(hasPage(spn));
+
+				byte[] memory = Machine.processor().getMemory();
+				if (data == null)
+					Arrays.fill(memory, ppn * pageSize, (ppn + 1) * pageSize,
+							(byte) 0);
+				else
+					System.arraycopy(data, spn * pageSize, memory, ppn
+							* pageSize, pageSize);
+			}
+
+			/**
+			 * Record the contents of a page just loaded from the executable.
+			 *
+			 * @param spn
+			 *            the page number within this section.
+			 * @param ppn
+			 *            the physical page holding it.
+			 */
+			public void capturePage(int spn, int ppn) {
+				if (data == null || captured[spn])
+					return;
+
+				System.arraycopy(Machine.processor().getMemory(), ppn
+						* pageSize, data, spn * pageSize, pageSize);
+				captured[spn] = true;
+				missing--;
+			}
+
+			private String name;
+			private int firstVPN, numPages;
+			private boolean readOnly;
+			private byte[] data;
+			private boolean[] captured;
+		}
+	}
+
+	private int budget;
+	private int size = 0;
+	private int hits = 0, misses = 0, evictions = 0;
+	/** The executables that are running or cached, by name. */
+	private HashMap<String, Executable> executables = new HashMap<String, Executable>();
+	/** Versions are never reused, even once a file is no longer tracked. */
+	private int nextVersion = 0;
+
+	/** In access order, least recently used first. */
+	private LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(
+			16, 0.75f, true);
+
+	private Lock lock = new Lock();
+
+	private static class Executable {
+		Executable(int version) {
+			this.version = version;
+		}
+
+		int users = 0;
+		int version;
+	}
+
+	private static final int pageSize = Processor.pageSize;
+}
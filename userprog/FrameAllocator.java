@@ -0,0 +1,474 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * Keeps track of which physical page frames are free. Frames are tracked in a
+ * bitmap, one bit per frame (set when the frame is free), so allocating and
+ * freeing never creates objects, and whole words of 64 frames can be skipped
+ * or claimed at once.
+ *
+ * <p>
+ * Frames can be allocated one at a time, in bulk (any <i>n</i> frames), or as
+ * a contiguous run. Bulk requests are all-or-nothing. The allocator also
+ * remembers the lowest word that may contain a free frame, so that searches
+ * do not rescan the full prefix of memory that is usually in use.
+ *
+ * <p>
+ * Contiguous runs are found with a run index: a complete binary tree over the
+ * words of the bitmap, in which each node records the free run at the start
+ * of its range, the free run at the end, and the longest free run anywhere
+ * within it. Finding the lowest run of <i>n</i> frames, or the longest run,
+ * walks down the tree instead of scanning the bitmap, and changing a word
+ * only updates the nodes above it.
+ *
+ * <p>
+ * A frame can be pinned while the kernel copies to or from it without
+ * holding whatever maps it, for example while a process blocks in a read
+ * into its own memory. A pinned frame that is freed stays allocated until its
+ * last pin is dropped, so it is never handed to anyone else in the meantime.
+ *
+ * <p>
+ * All methods are synchronized with an internal lock.
+ */
+public class FrameAllocator {
+	/**
+	 * Allocate a new allocator with every frame free.
+	 *
+	 * @param numFrames
+	 *            the number of physical frames.
+	 */
+	public FrameAllocator(int numFrames) {
+		Lib.assertTrue(numFrames >= 0);
+
+		this.numFrames = numFrames;
+		numFree = numFrames;
+		pins = new int[numFrames];
+		freeWhenUnpinned = new long[(numFrames + 63) / 64];
+
+		free = new long[(numFrames + 63) / 64];
+		for (int i = 0; i < free.length; i++)
+			free[i] = -1L;
+		if (numFrames % 64 != 0)
+			free[free.length - 1] = (1L << (numFrames % 64)) - 1;
+
+		leaves = 1;
+		while (leaves < free.length)
+			leaves *= 2;
+		startRun = new int[leaves * 2];
+		endRun = new int[leaves * 2];
+		longestRun = new int[leaves * 2];
+		for (int word = 0; word < free.length; word++)
+			summarize(word);
+		for (int node = leaves - 1; node > 0; node--)
+			combine(node);
+	}
+
+	/**
+	 * Allocate a single frame.
+	 *
+	 * @return the frame number, or -1 if no frame is free.
+	 */
+	public int allocate() {
+		lock.acquire();
+		int frame = -1;
+		if (numFree > 0) {
+			frame = nextFree(0);
+			claim(frame, 1);
+		}
+		lock.release();
+
+		return frame;
+	}
+
+	/**
+	 * Allocate <i>count</i> frames, not necessarily contiguous, and store
+	 * their numbers in <i>frames</i> starting at <i>offset</i>. Either all
+	 * the frames are allocated or none are.
+	 *
+	 * @param frames
+	 *            the array to store frame numbers in.
+	 * @param offset
+	 *            the first element of <i>frames</i> to store to.
+	 * @param count
+	 *            the number of frames to allocate.
+	 * @return <tt>true</tt> if the frames were allocated.
+	 */
+	public boolean allocate(int[] frames, int offset, int count) {
+		Lib.assertTrue(offset >= 0 && count >= 0
+				&& offset + count <= frames.length);
+
+		lock.acquire();
+		if (count > numFree) {
+			lock.release();
+			return false;
+		}
+
+		int n = 0;
+		for (int word = rover; n < count; word++) {
+			long bits = free[word];
+			if (bits == 0)
+				continue;
+
+			if (bits == -1L && count - n >= 64) {
+				// take the whole word
+				for (int bit = 0; bit < 64; bit++)
+					frames[offset + n++] = word * 64 + bit;
+				bits = 0;
+			}
+
+			while (bits != 0 && n < count) {
+				int bit = Long.numberOfTrailingZeros(bits);
+				frames[offset + n++] = word * 64 + bit;
+				bits &= bits - 1;
+			}
+			free[word] = bits;
+			update(word);
+		}
+
+		numFree -= count;
+		advanceRover();
+		lock.release();
+
+		return true;
+	}
+
+	/**
+	 * Allocate <i>count</i> physically contiguous frames.
+	 *
+	 * @param count
+	 *            the number of frames to allocate.
+	 * @return the first frame of the run, or -1 if there is no free run that
+	 *         long.
+	 */
+	public int allocateContiguous(int count) {
+		Lib.assertTrue(count > 0);
+
+		lock.acquire();
+		int first = -1;
+		if (count <= numFree) {
+			first = findRun(count);
+			if (first != -1)
+				claim(first, count);
+		}
+		lock.release();
+
+		return first;
+	}
+
+	/**
+	 * Free a single frame.
+	 *
+	 * @param frame
+	 *            the frame to free.
+	 */
+	public void free(int frame) {
+		lock.acquire();
+		release(frame);
+		lock.release();
+	}
+
+	/**
+	 * Free <i>count</i> frames whose numbers are stored in <i>frames</i>
+	 * starting at <i>offset</i>.
+	 *
+	 * @param frames
+	 *            the frame numbers.
+	 * @param offset
+	 *            the first element of <i>frames</i> to read.
+	 * @param count
+	 *            the number of frames to free.
+	 */
+	public void free(int[] frames, int offset, int count) {
+		Lib.assertTrue(offset >= 0 && count >= 0
+				&& offset + count <= frames.length);
+
+		lock.acquire();
+		for (int i = 0; i < count; i++)
+			release(frames[offset + i]);
+		lock.release();
+	}
+
+	/**
+	 * Free a contiguous run of frames.
+	 *
+	 * @param first
+	 *            the first frame of the run.
+	 * @param count
+	 *            the number of frames.
+	 */
+	public void freeContiguous(int first, int count) {
+		lock.acquire();
+		for (int i = 0; i < count; i++)
+			release(first + i);
+		lock.release();
+	}
+
+	/**
+	 * Pin an allocated frame: if it is freed before it is unpinned, it is
+	 * only freed when the last pin is dropped.
+	 *
+	 * @param frame
+	 *            the frame.
+	 */
+	public void pin(int frame) {
+		lock.acquire();
+		Lib.assertTrue(frame >= 0 && frame < numFrames);
+		Lib.assertTrue((free[frame / 64] & (1L << (frame % 64))) == 0);
+
+		pins[frame]++;
+		lock.release();
+	}
+
+	/**
+	 * Drop a pin taken by <tt>pin()</tt>, freeing the frame if it was freed
+	 * while pinned and this was its last pin.
+	 *
+	 * @param frame
+	 *            the frame.
+	 */
+	public void unpin(int frame) {
+		lock.acquire();
+		Lib.assertTrue(frame >= 0 && frame < numFrames && pins[frame] > 0);
+
+		pins[frame]--;
+		long bit = 1L << (frame % 64);
+		if (pins[frame] == 0 && (freeWhenUnpinned[frame / 64] & bit) != 0) {
+			freeWhenUnpinned[frame / 64] &= ~bit;
+			release(frame);
+		}
+		lock.release();
+	}
+
+	/**
+	 * Return the total number of frames.
+	 *
+	 * @return the number of frames.
+	 */
+	public int getNumFrames() {
+		return numFrames;
+	}
+
+	/**
+	 * Return the number of free frames.
+	 *
+	 * @return the number of free frames.
+	 */
+	public int getNumFree() {
+		lock.acquire();
+		int n = numFree;
+		lock.release();
+
+		return n;
+	}
+
+	/**
+	 * Return the length of the longest run of contiguous free frames.
+	 *
+	 * @return the longest free run.
+	 */
+	public int getLargestFreeRun() {
+		lock.acquire();
+		int longest = longestRun[1];
+		lock.release();
+
+		return longest;
+	}
+
+	/**
+	 * Return how fragmented free memory is: 0 if every free frame is in a
+	 * single run, approaching 1 as free frames are scattered.
+	 *
+	 * @return <tt>1 - largest free run / free frames</tt>, or 0 if no frame is
+	 *         free.
+	 */
+	public double getFragmentation() {
+		int largest = getLargestFreeRun();
+		int n = getNumFree();
+		if (n == 0)
+			return 0;
+
+		return 1 - (double) largest / n;
+	}
+
+	// return the first free frame at or after frame start
+	private int nextFree(int start) {
+		for (int word = Math.max(start / 64, rover); word < free.length; word++) {
+			long bits = free[word];
+			if (word == start / 64)
+				bits &= -1L << (start % 64);
+			if (bits != 0)
+				return word * 64 + Long.numberOfTrailingZeros(bits);
+		}
+		return -1;
+	}
+
+	// return the first frame of the lowest free run of count frames, or -1
+	private int findRun(int count) {
+		if (longestRun[1] < count)
+			return -1;
+
+		// descend towards the lowest node holding a long enough run
+		int node = 1, first = 0, width = leaves * 64;
+		while (node < leaves) {
+			int left = node * 2, right = left + 1;
+			width /= 2;
+			if (longestRun[left] >= count) {
+				node = left;
+			} else if (endRun[left] + startRun[right] >= count) {
+				return first + width - endRun[left];
+			} else {
+				node = right;
+				first += width;
+			}
+		}
+
+		// the run lies within one word: find where count free bits start
+		long bits = free[node - leaves], starts = bits;
+		for (int i = 1; i < count; i++)
+			starts &= bits >>> i;
+		return first + Long.numberOfTrailingZeros(starts);
+	}
+
+	private void claim(int first, int count) {
+		for (int i = first; i < first + count; i++) {
+			Lib.assertTrue((free[i / 64] & (1L << (i % 64))) != 0);
+			free[i / 64] &= ~(1L << (i % 64));
+			if (i % 64 == 63 || i == first + count - 1)
+				update(i / 64);
+		}
+		numFree -= count;
+		advanceRover();
+	}
+
+	private void release(int frame) {
+		Lib.assertTrue(frame >= 0 && frame < numFrames);
+		Lib.assertTrue((free[frame / 64] & (1L << (frame % 64))) == 0
+				&& (freeWhenUnpinned[frame / 64] & (1L << (frame % 64))) == 0,
+				"frame freed twice");
+
+		if (pins[frame] > 0) {
+			freeWhenUnpinned[frame / 64] |= 1L << (frame % 64);
+			return;
+		}
+
+		free[frame / 64] |= 1L << (frame % 64);
+		update(frame / 64);
+		numFree++;
+		if (frame / 64 < rover)
+			rover = frame / 64;
+	}
+
+	// bring the run index up to date after a word of the bitmap changed
+	private void update(int word) {
+		summarize(word);
+		for (int node = (leaves + word) / 2; node > 0; node /= 2)
+			combine(node);
+	}
+
+	// set the runs of the leaf for a word from its bits
+	private void summarize(int word) {
+		long bits = free[word];
+		int leaf = leaves + word;
+		startRun[leaf] = Long.numberOfTrailingZeros(~bits);
+		endRun[leaf] = Long.numberOfLeadingZeros(~bits);
+
+		// each step shortens every run of set bits by one
+		int longest = 0;
+		for (; bits != 0; bits &= bits >>> 1)
+			longest++;
+		longestRun[leaf] = longest;
+	}
+
+	// set the runs of an inner node from those of its children
+	private void combine(int node) {
+		int left = node * 2, right = left + 1;
+		int half = leaves / Integer.highestOneBit(node) * 32;
+
+		startRun[node] = startRun[left] == half ? half + startRun[right]
+				: startRun[left];
+		endRun[node] = endRun[right] == half ? half + endRun[left]
+				: endRun[right];
+		longestRun[node] = Math.max(Math.max(longestRun[left],
+				longestRun[right]), endRun[left] + startRun[right]);
+	}
+
+	private void advanceRover() {
+		while (rover < free.length && free[rover] == 0)
+			rover++;
+	}
+
+	/**
+	 * Test this module.
+	 */
+	public static void selfTest() {
+		FrameAllocator a = new FrameAllocator(200);
+		Lib.assertTrue(a.getNumFree() == 200 && a.getLargestFreeRun() == 200);
+
+		int[] frames = new int[150];
+		Lib.assertTrue(a.allocate(frames, 0, 150));
+		for (int i = 0; i < 150; i++)
+			Lib.assertTrue(frames[i] == i);
+		Lib.assertTrue(!a.allocate(frames, 0, 51));
+		Lib.assertTrue(a.getNumFree() == 50);
+
+		// free every other frame below 100: 50 single holes
+		for (int i = 0; i < 100; i += 2)
+			a.free(i);
+		Lib.assertTrue(a.getLargestFreeRun() == 50);
+		Lib.assertTrue(a.allocateContiguous(51) == -1);
+		Lib.assertTrue(a.allocateContiguous(2) == 150);
+		Lib.assertTrue(a.getFragmentation() > 0.5);
+		Lib.assertTrue(a.allocate() == 0);
+
+		a.free(frames, 100, 50);
+		a.freeContiguous(150, 2);
+		Lib.assertTrue(a.allocateContiguous(60) == 100);
+		a.freeContiguous(100, 60);
+		for (int i = 1; i < 100; i += 2)
+			a.free(i);
+		a.free(0);
+		Lib.assertTrue(a.getNumFree() == 200 && a.getFragmentation() == 0);
+
+		// runs that cross words, and holes that do not fit
+		FrameAllocator b = new FrameAllocator(300);
+		Lib.assertTrue(b.allocateContiguous(60) == 0);
+		Lib.assertTrue(b.allocateContiguous(100) == 60);
+		b.freeContiguous(10, 20);
+		Lib.assertTrue(b.allocateContiguous(30) == 160);
+		Lib.assertTrue(b.allocateContiguous(20) == 10);
+		Lib.assertTrue(b.getLargestFreeRun() == 110);
+
+		// a pinned frame is not reused until it is unpinned
+		b.pin(10);
+		b.pin(10);
+		b.freeContiguous(10, 20);
+		Lib.assertTrue(b.getNumFree() == 129 && b.allocateContiguous(19) == 11);
+		b.unpin(10);
+		Lib.assertTrue(b.getNumFree() == 110);
+		b.unpin(10);
+		Lib.assertTrue(b.getNumFree() == 111 && b.allocate() == 10);
+	}
+
+	private int numFrames;
+	private int numFree;
+	/** One bit per frame, set if the frame is free. */
+	private long[] free;
+	/** No word below this one has a free frame. */
+	private int rover = 0;
+	/** The pins on each frame, and one bit per frame freed while pinned. */
+	private int[] pins;
+	private long[] freeWhenUnpinned;
+
+	/**
+	 * The run index. Node 1 covers the whole bitmap, node <i>i</i> has
+	 * children <i>2i</i> and <i>2i+1</i>, and the leaf for word <i>w</i> is
+	 * node <tt>leaves + </tt><i>w</i>. Each node holds the length of the free
+	 * run at the start of its range, at the end, and the longest within it.
+	 */
+	private int leaves;
+	private int[] startRun, endRun, longestRun;
+
+	private Lock lock = new Lock();
+}
@@ -0,0 +1,151 @@
+package nachos.userprog;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * The wait queues behind the <tt>futex()</tt> syscall. User programs keep
+ * their lock and condition variable state in ordinary words of memory and
+ * only trap into the kernel to sleep when a word shows contention, or to wake
+ * sleepers. The kernel keeps a queue for each (process, virtual address) that
+ * has sleepers, and forgets it when the last one is woken.
+ *
+ * <p>
+ * Like the kernel's semaphores, the table is protected by disabling
+ * interrupts, which also makes checking a word and going to sleep atomic with
+ * respect to any thread that changes the word and then wakes sleepers.
+ */
+public class FutexTable {
+	/**
+	 * Allocate a new, empty table.
+	 */
+	public FutexTable() {
+	}
+
+	/**
+	 * If the word at <i>vaddr</i> still holds <i>expected</i>, sleep until
+	 * woken by <tt>wake()</tt> on the same address.
+	 *
+	 * @param process
+	 *            the calling process.
+	 * @param vaddr
+	 *            the address of the word.
+	 * @param expected
+	 *            the value the caller last saw in the word.
+	 * @return <tt>true</tt> if the caller slept and was woken, or
+	 *         <tt>false</tt> if the word held another value or could not be
+	 *         read.
+	 */
+	public boolean wait(UserProcess process, int vaddr, int expected) {
+		// fault the page in first, since that may block
+		byte[] word = new byte[4];
+		if (process.readVirtualMemory(vaddr, word) < word.length)
+			return false;
+
+		boolean intStatus = Machine.interrupt().disable();
+
+		if (process.readVirtualMemory(vaddr, word) < word.length
+				|| Lib.bytesToInt(word, 0) != expected) {
+			Machine.interrupt().restore(intStatus);
+			return false;
+		}
+
+		Key key = new Key(process, vaddr);
+		Waiters waiters = table.get(key);
+		if (waiters == null) {
+			waiters = new Waiters();
+			table.put(key, waiters);
+		}
+		waiters.count++;
+		waiters.queue.waitForAccess(KThread.currentThread());
+		KThread.sleep();
+
+		Machine.interrupt().restore(intStatus);
+		return true;
+	}
+
+	/**
+	 * Wake up to <i>count</i> threads sleeping on an address.
+	 *
+	 * @param process
+	 *            the calling process.
+	 * @param vaddr
+	 *            the address of the word.
+	 * @param count
+	 *            the most threads to wake.
+	 * @return the number of threads woken.
+	 */
+	public int wake(UserProcess process, int vaddr, int count) {
+		boolean intStatus = Machine.interrupt().disable();
+
+		Key key = new Key(process, vaddr);
+		Waiters waiters = table.get(key);
+		int woken = 0;
+		while (waiters != null && woken < count && waiters.count > 0) {
+			waiters.queue.nextThread().ready();
+			waiters.count--;
+			woken++;
+		}
+		if (waiters != null && waiters.count == 0)
+			table.remove(key);
+
+		Machine.interrupt().restore(intStatus);
+		return woken;
+	}
+
+	/**
+	 * Wake every thread of an exiting process that is sleeping in
+	 * <tt>wait()</tt>, so that it can finish, and forget the process's queues.
+	 *
+	 * @param process
+	 *            the process.
+	 */
+	public void remove(UserProcess process) {
+		boolean intStatus = Machine.interrupt().disable();
+
+		for (Iterator<Map.Entry<Key, Waiters>> it = table.entrySet()
+				.iterator(); it.hasNext();) {
+			Map.Entry<Key, Waiters> e = it.next();
+			if (e.getKey().process == process) {
+				for (int i = 0; i < e.getValue().count; i++)
+					e.getValue().queue.nextThread().ready();
+				it.remove();
+			}
+		}
+
+		Machine.interrupt().restore(intStatus);
+	}
+
+	private static class Key {
+		Key(UserProcess process, int vaddr) {
+			this.process = process;
+			this.vaddr = vaddr;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return process == k.process && vaddr == k.vaddr;
+		}
+
+		public int hashCode() {
+			return System.identityHashCode(process) * 31 + vaddr;
+		}
+
+		private UserProcess process;
+		private int vaddr;
+	}
+
+	private static class Waiters {
+		private ThreadQueue queue = ThreadedKernel.scheduler
+				.newThreadQueue(false);
+		private int count = 0;
+	}
+
+	private Map<Key, Waiters> table = new HashMap<Key, Waiters>();
+}
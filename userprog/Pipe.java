@@ -0,0 +1,294 @@
+package nachos.userprog;
+
+import java.util.LinkedList;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A one-way byte stream between processes, backed by a bounded ring buffer
+ * in kernel memory. Data written to the write end can be read from the read
+ * end in the same order.
+ *
+ * <p>
+ * Reading an empty pipe blocks until some data is written, or returns 0 (end
+ * of file) once every write end has been closed. Writing to a full pipe
+ * blocks until a reader makes room. Writing to a pipe whose read ends have
+ * all been closed fails.
+ *
+ * <p>
+ * Each end is an <tt>OpenFile</tt>, so it can live in a process's file table
+ * next to ordinary files. An end can be duplicated (for example, when a child
+ * process inherits it); the pipe counts the open copies of each end.
+ */
+public class Pipe {
+	/**
+	 * Allocate a new pipe with the default capacity.
+	 */
+	public Pipe() {
+		this(defaultCapacity);
+	}
+
+	/**
+	 * Allocate a new pipe.
+	 *
+	 * @param capacity
+	 *            the number of bytes the pipe can hold before writers block.
+	 */
+	public Pipe(int capacity) {
+		Lib.assertTrue(capacity > 0);
+
+		buffer = new byte[capacity];
+	}
+
+	/**
+	 * Open a new read end of this pipe.
+	 *
+	 * @return the read end.
+	 */
+	public End openForReading() {
+		lock.acquire();
+		readers++;
+		lock.release();
+
+		return new End(true);
+	}
+
+	/**
+	 * Open a new write end of this pipe.
+	 *
+	 * @return the write end.
+	 */
+	public End openForWriting() {
+		lock.acquire();
+		writers++;
+		lock.release();
+
+		return new End(false);
+	}
+
+	private int read(byte[] buf, int offset, int length) {
+		lock.acquire();
+		while (count == 0 && writers > 0 && !exiting())
+			notEmpty.sleep();
+
+		int amount = Math.min(length, count);
+		for (int i = 0; i < amount; i++) {
+			buf[offset + i] = buffer[head];
+			head = (head + 1) % buffer.length;
+		}
+		count -= amount;
+
+		if (amount > 0) {
+			notFull.wakeAll();
+			Poller.notifyPollers(pollers);
+		}
+		lock.release();
+
+		return amount;
+	}
+
+	private int write(byte[] buf, int offset, int length) {
+		lock.acquire();
+		int total = 0;
+		while (total < length && readers > 0) {
+			while (count == buffer.length && readers > 0 && !exiting())
+				notFull.sleep();
+			if (readers == 0 || count == buffer.length)
+				break;
+
+			int amount = Math.min(length - total, buffer.length - count);
+			int tail = (head + count) % buffer.length;
+			for (int i = 0; i < amount; i++) {
+				buffer[tail] = buf[offset + total + i];
+				tail = (tail + 1) % buffer.length;
+			}
+			count += amount;
+			total += amount;
+
+			notEmpty.wakeAll();
+			Poller.notifyPollers(pollers);
+		}
+		lock.release();
+
+		// nobody will ever read what we could not write
+		if (total == 0 && length > 0)
+			return -1;
+		return total;
+	}
+
+	private void close(boolean readEnd) {
+		lock.acquire();
+		if (readEnd) {
+			readers--;
+			if (readers == 0)
+				notFull.wakeAll();
+		} else {
+			writers--;
+			if (writers == 0)
+				notEmpty.wakeAll();
+		}
+		Poller.notifyPollers(pollers);
+		lock.release();
+	}
+
+	/**
+	 * Wake every thread blocked on this pipe, so that those whose process is
+	 * exiting stop waiting. The others go back to sleep.
+	 */
+	void interrupt() {
+		lock.acquire();
+		notEmpty.wakeAll();
+		notFull.wakeAll();
+		Poller.notifyPollers(pollers);
+		lock.release();
+	}
+
+	// a thread of an exiting process must not wait for another process
+	private static boolean exiting() {
+		KThread thread = KThread.currentThread();
+		return thread instanceof UThread
+				&& ((UThread) thread).process.isExiting();
+	}
+
+	/**
+	 * One open end of a pipe.
+	 */
+	public class End extends OpenFile implements Pollable {
+		private End(boolean readEnd) {
+			super(null, "pipe");
+
+			this.readEnd = readEnd;
+		}
+
+		/**
+		 * Open another copy of this end. The pipe stays open until every copy
+		 * has been closed.
+		 *
+		 * @return the new copy.
+		 */
+		public End dup() {
+			Lib.assertTrue(open);
+
+			return readEnd ? openForReading() : openForWriting();
+		}
+
+		/**
+		 * Return the pipe this end belongs to.
+		 *
+		 * @return the pipe.
+		 */
+		public Pipe getPipe() {
+			return Pipe.this;
+		}
+
+		public int read(byte[] buf, int offset, int length) {
+			if (!open || !readEnd)
+				return -1;
+
+			return Pipe.this.read(buf, offset, length);
+		}
+
+		public int write(byte[] buf, int offset, int length) {
+			if (!open || readEnd)
+				return -1;
+
+			return Pipe.this.write(buf, offset, length);
+		}
+
+		public void close() {
+			if (open) {
+				open = false;
+				Pipe.this.close(readEnd);
+			}
+		}
+
+		public int getReadiness() {
+			lock.acquire();
+			int readiness = 0;
+			if (readEnd) {
+				if (count > 0 || writers == 0)
+					readiness |= Poller.pollIn;
+				if (writers == 0)
+					readiness |= Poller.pollHup;
+			} else {
+				if (count < buffer.length || readers == 0)
+					readiness |= Poller.pollOut;
+				if (readers == 0)
+					readiness |= Poller.pollHup;
+			}
+			lock.release();
+
+			return readiness;
+		}
+
+		public void addPoller(Poller poller) {
+			lock.acquire();
+			pollers.add(poller);
+			lock.release();
+		}
+
+		public void removePoller(Poller poller) {
+			lock.acquire();
+			pollers.remove(poller);
+			lock.release();
+		}
+
+		private boolean readEnd;
+		private boolean open = true;
+	}
+
+	/**
+	 * Test this module with kernel threads: a writer sends more data than the
+	 * pipe holds through two write ends, and a reader checks it all arrives
+	 * in order before seeing end of file.
+	 */
+	public static void selfTest() {
+		final Pipe pipe = new Pipe(16);
+		final End in = pipe.openForReading();
+		final End out = pipe.openForWriting();
+		final End out2 = out.dup();
+		final int total = 1000;
+
+		KThread writer = new KThread(new Runnable() {
+			public void run() {
+				byte[] data = new byte[total];
+				for (int i = 0; i < total; i++)
+					data[i] = (byte) i;
+				Lib.assertTrue(out.write(data, 0, total / 2) == total / 2);
+				out.close();
+				Lib.assertTrue(out2.write(data, total / 2, total / 2) == total / 2);
+				out2.close();
+			}
+		}).setName("pipe writer");
+		writer.fork();
+
+		byte[] got = new byte[7];
+		int n, received = 0;
+		while ((n = in.read(got, 0, got.length)) > 0) {
+			for (int i = 0; i < n; i++)
+				Lib.assertTrue(got[i] == (byte) (received + i));
+			received += n;
+		}
+		Lib.assertTrue(n == 0 && received == total);
+		writer.join();
+
+		// writing with no readers left fails
+		End out3 = pipe.openForWriting();
+		in.close();
+		Lib.assertTrue(out3.write(got, 0, 1) == -1);
+		out3.close();
+	}
+
+	private byte[] buffer;
+	private int head = 0, count = 0;
+	private int readers = 0, writers = 0;
+
+	private Lock lock = new Lock();
+	private Condition2 notEmpty = new Condition2(lock);
+	private Condition2 notFull = new Condition2(lock);
+	/** Pollers waiting on either end. */
+	private LinkedList<Poller> pollers = new LinkedList<Poller>();
+
+	private static final int defaultCapacity = 4096;
+}
@@ -0,0 +1,33 @@
+package nachos.userprog;
+
+/**
+ * An open file that can tell whether reading or writing it would block, and
+ * notify a <tt>Poller</tt> when that may have changed. Files that are not
+ * pollable, such as files on disk, never block and are always ready.
+ */
+public interface Pollable {
+	/**
+	 * Return which of <tt>Poller.pollIn</tt>, <tt>Poller.pollOut</tt> and
+	 * <tt>Poller.pollHup</tt> hold right now.
+	 *
+	 * @return the file's readiness.
+	 */
+	public int getReadiness();
+
+	/**
+	 * Notify <i>poller</i> whenever this file's readiness may have changed,
+	 * until it is removed.
+	 *
+	 * @param poller
+	 *            the poller to notify.
+	 */
+	public void addPoller(Poller poller);
+
+	/**
+	 * Stop notifying a poller.
+	 *
+	 * @param poller
+	 *            the poller.
+	 */
+	public void removePoller(Poller poller);
+}
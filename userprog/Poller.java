@@ -0,0 +1,78 @@
+package nachos.userprog;
+
+import java.util.List;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * Lets a thread wait for any of several files to become ready, or for a
+ * timeout to pass. The thread registers the poller with every
+ * <tt>Pollable</tt> file, checks their readiness, and calls <tt>await()</tt>
+ * if none is ready; a file whose readiness changes calls <tt>notifyReady()</tt>.
+ *
+ * <p>
+ * The waiting is done in <tt>Alarm.waitUntil()</tt>, so that the timeout and
+ * a notification wake the thread the same way. A notification that arrives
+ * before the thread sleeps is remembered, so none is lost between checking
+ * the files and going to sleep.
+ */
+public class Poller {
+	/**
+	 * Allocate a new poller for the current thread.
+	 */
+	public Poller() {
+		thread = KThread.currentThread();
+	}
+
+	/**
+	 * Wake the waiting thread, or keep it from sleeping in its next
+	 * <tt>await()</tt>. May be called from interrupt handlers.
+	 */
+	public void notifyReady() {
+		boolean intStatus = Machine.interrupt().disable();
+		if (!ThreadedKernel.alarm.wakeEarly(thread))
+			pending = true;
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Sleep until notified or until <i>ticks</i> have passed, unless a
+	 * notification is already pending.
+	 *
+	 * @param ticks
+	 *            the longest time to sleep.
+	 */
+	public void await(long ticks) {
+		boolean intStatus = Machine.interrupt().disable();
+		if (!pending)
+			ThreadedKernel.alarm.waitUntil(ticks);
+		pending = false;
+		Machine.interrupt().restore(intStatus);
+	}
+
+	/**
+	 * Notify every poller in a list. The caller must keep the list from
+	 * changing, as <tt>Pollable</tt> implementations do by holding a lock or
+	 * disabling interrupts.
+	 *
+	 * @param pollers
+	 *            the pollers to notify.
+	 */
+	public static void notifyPollers(List<Poller> pollers) {
+		for (Poller poller : pollers)
+			poller.notifyReady();
+	}
+
+	private KThread thread;
+	private boolean pending = false;
+
+	/** Reading will not block. */
+	public static final int pollIn = 0x01;
+	/** Writing will not block. */
+	public static final int pollOut = 0x04;
+	/** The other end has been closed. */
+	public static final int pollHup = 0x10;
+	/** The descriptor is not open. */
+	public static final int pollNval = 0x20;
+}
@@ -0,0 +1,189 @@
+package nachos.userprog;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * The kernel's shared memory segments. A segment is a set of physical frames,
+ * named by a key chosen by user programs, that any number of processes can map
+ * into their address spaces to exchange data without copying it.
+ *
+ * <p>
+ * Each segment is reference counted: every process that has looked the
+ * segment up holds one reference, and so does every mapping of it. When the
+ * last reference is released, the segment is removed and its frames go back
+ * to the frame allocator, so a key only refers to the same data for as long
+ * as some process uses it.
+ *
+ * <p>
+ * A segment takes a contiguous run of frames when there is one long enough,
+ * so that it is cleared and freed as a single range, and any free frames
+ * otherwise.
+ */
+public class SharedMemory {
+	/**
+	 * Allocate a new, empty set of segments.
+	 *
+	 * @param frameAllocator
+	 *            where segments get their frames.
+	 */
+	public SharedMemory(FrameAllocator frameAllocator) {
+		this.frameAllocator = frameAllocator;
+	}
+
+	/**
+	 * Look up the segment with a key, creating it with zeroed frames if there
+	 * is none, and take a reference to it.
+	 *
+	 * @param key
+	 *            the key naming the segment.
+	 * @param numPages
+	 *            the number of pages the caller needs.
+	 * @return the segment, or <tt>null</tt> if a new segment could not be
+	 *         allocated or an existing one is smaller than <i>numPages</i>.
+	 */
+	public Segment get(int key, int numPages) {
+		if (numPages <= 0)
+			return null;
+
+		lock.acquire();
+		Segment segment = byKey.get(key);
+		if (segment != null) {
+			if (segment.frames.length < numPages)
+				segment = null;
+			else
+				segment.references++;
+			lock.release();
+			return segment;
+		}
+
+		int[] frames = new int[numPages];
+		byte[] memory = Machine.processor().getMemory();
+		int first = frameAllocator.allocateContiguous(numPages);
+		if (first != -1) {
+			for (int i = 0; i < numPages; i++)
+				frames[i] = first + i;
+			Arrays.fill(memory, first * pageSize, (first + numPages)
+					* pageSize, (byte) 0);
+		} else if (frameAllocator.allocate(frames, 0, numPages)) {
+			for (int ppn : frames)
+				Arrays.fill(memory, ppn * pageSize, (ppn + 1) * pageSize,
+						(byte) 0);
+		} else {
+			lock.release();
+			return null;
+		}
+
+		segment = new Segment(nextId++, key, frames, first != -1);
+		byKey.put(key, segment);
+		lock.release();
+
+		return segment;
+	}
+
+	/**
+	 * Take another reference to a segment the caller already holds.
+	 *
+	 * @param segment
+	 *            the segment.
+	 */
+	public void reference(Segment segment) {
+		lock.acquire();
+		Lib.assertTrue(segment.references > 0);
+		segment.references++;
+		lock.release();
+	}
+
+	/**
+	 * Drop a reference to a segment, removing it if it was the last.
+	 *
+	 * @param segment
+	 *            the segment.
+	 */
+	public void release(Segment segment) {
+		lock.acquire();
+		Lib.assertTrue(segment.references > 0);
+		segment.references--;
+		boolean removed = segment.references == 0;
+		if (removed)
+			byKey.remove(segment.key);
+		lock.release();
+
+		if (removed && segment.contiguous)
+			frameAllocator.freeContiguous(segment.frames[0],
+					segment.frames.length);
+		else if (removed)
+			frameAllocator.free(segment.frames, 0, segment.frames.length);
+	}
+
+	/**
+	 * Return the number of segments that exist.
+	 *
+	 * @return the number of segments.
+	 */
+	public int getNumSegments() {
+		lock.acquire();
+		int n = byKey.size();
+		lock.release();
+
+		return n;
+	}
+
+	/**
+	 * A shared memory segment.
+	 */
+	public static class Segment {
+		private Segment(int id, int key, int[] frames, boolean contiguous) {
+			this.id = id;
+			this.key = key;
+			this.frames = frames;
+			this.contiguous = contiguous;
+		}
+
+		/**
+		 * Return the number that identifies this segment to user programs.
+		 *
+		 * @return the segment id.
+		 */
+		public int getId() {
+			return id;
+		}
+
+		/**
+		 * Return the number of pages in this segment.
+		 *
+		 * @return the number of pages.
+		 */
+		public int getNumPages() {
+			return frames.length;
+		}
+
+		/**
+		 * Return the frame holding a page of this segment.
+		 *
+		 * @param page
+		 *            the page within the segment.
+		 * @return the physical page number.
+		 */
+		public int getFrame(int page) {
+			return frames[page];
+		}
+
+		private int id, key;
+		private int[] frames;
+		private boolean contiguous;
+		private int references = 1;
+	}
+
+	private FrameAllocator frameAllocator;
+	private Map<Integer, Segment> byKey = new HashMap<Integer, Segment>();
+	private int nextId = 1;
+
+	private Lock lock = new Lock();
+
+	private static final int pageSize = Processor.pageSize;
+}
@@ -0,0 +1,227 @@
+package nachos.userprog;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A kernel-wide cache of read-only executable pages (such as <tt>.text</tt>
+ * and <tt>.rdata</tt>) that can be mapped into any number of processes
+ * running the same program. Each page is identified by the executable's name
+ * and length, the version of the file, the section number and the page
+ * within the section, and is reference counted. When the last process mapping
+ * a page releases it, its frame goes back to the frame allocator.
+ *
+ * <p>
+ * A page is only found by processes running an executable with the same name,
+ * length and version. When a file changes, <tt>invalidate()</tt> forgets its
+ * pages, so new processes load them afresh; processes already mapping the old
+ * pages keep them until they release them.
+ */
+public class SharedPageCache {
+	/**
+	 * Allocate a new, empty cache.
+	 *
+	 * @param frameAllocator
+	 *            where frames go when no process uses them any more.
+	 */
+	public SharedPageCache(FrameAllocator frameAllocator) {
+		this.frameAllocator = frameAllocator;
+	}
+
+	/**
+	 * Look up a page and, if it is cached, take a reference to it.
+	 *
+	 * @param executable
+	 *            the name of the executable file.
+	 * @param length
+	 *            the length of the executable file.
+	 * @param version
+	 *            the version of the executable file.
+	 * @param section
+	 *            the section number.
+	 * @param page
+	 *            the page within the section.
+	 * @return the physical frame holding the page, or -1 if it is not cached.
+	 */
+	public int acquire(String executable, int length, int version,
+			int section, int page) {
+		Key key = new Key(executable, length, version, section, page);
+
+		lock.acquire();
+		Entry entry = byKey.get(key);
+		int ppn = -1;
+		if (entry != null) {
+			entry.references++;
+			ppn = entry.ppn;
+			hits++;
+		} else {
+			misses++;
+		}
+		lock.release();
+
+		return ppn;
+	}
+
+	/**
+	 * Add a page that the caller has just loaded into <i>ppn</i>, holding one
+	 * reference for the caller. If another process added the same page in the
+	 * meantime, the caller's frame is freed and the cached one is returned
+	 * (with a reference taken) instead.
+	 *
+	 * @param executable
+	 *            the name of the executable file.
+	 * @param length
+	 *            the length of the executable file.
+	 * @param version
+	 *            the version of the executable file.
+	 * @param section
+	 *            the section number.
+	 * @param page
+	 *            the page within the section.
+	 * @param ppn
+	 *            the frame the page was loaded into.
+	 * @return the frame the caller should map.
+	 */
+	public int add(String executable, int length, int version, int section,
+			int page, int ppn) {
+		Key key = new Key(executable, length, version, section, page);
+
+		lock.acquire();
+		Entry entry = byKey.get(key);
+		if (entry != null) {
+			entry.references++;
+			lock.release();
+			frameAllocator.free(ppn);
+			return entry.ppn;
+		}
+
+		entry = new Entry(key, ppn);
+		byKey.put(key, entry);
+		byFrame.put(ppn, entry);
+		lock.release();
+
+		return ppn;
+	}
+
+	/**
+	 * Drop a reference to a cached page, freeing its frame if it was the last.
+	 *
+	 * @param ppn
+	 *            the frame holding the page.
+	 */
+	public void release(int ppn) {
+		lock.acquire();
+		Entry entry = byFrame.get(ppn);
+		Lib.assertTrue(entry != null && entry.references > 0);
+
+		entry.references--;
+		if (entry.references == 0) {
+			// an invalidated page is no longer found by its key
+			if (byKey.get(entry.key) == entry)
+				byKey.remove(entry.key);
+			byFrame.remove(ppn);
+		}
+		lock.release();
+
+		if (entry.references == 0)
+			frameAllocator.free(ppn);
+	}
+
+	/**
+	 * Forget the pages of a file that has changed, so that no process finds
+	 * them any more. Their frames are freed as usual when the processes
+	 * already mapping them release them.
+	 *
+	 * @param executable
+	 *            the name of the file.
+	 */
+	public void invalidate(String executable) {
+		lock.acquire();
+		Iterator<Key> it = byKey.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().executable.equals(executable))
+				it.remove();
+		}
+		lock.release();
+	}
+
+	/**
+	 * Return the number of distinct pages currently cached.
+	 *
+	 * @return the number of cached pages.
+	 */
+	public int getNumPages() {
+		lock.acquire();
+		int n = byFrame.size();
+		lock.release();
+
+		return n;
+	}
+
+	/**
+	 * Return the number of lookups that found a cached page.
+	 *
+	 * @return the number of hits.
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Return the number of lookups that did not find a cached page.
+	 *
+	 * @return the number of misses.
+	 */
+	public int getMisses() {
+		return misses;
+	}
+
+	private static class Key {
+		Key(String executable, int length, int version, int section, int page) {
+			this.executable = executable;
+			this.length = length;
+			this.version = version;
+			this.section = section;
+			this.page = page;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return executable.equals(k.executable) && length == k.length
+					&& version == k.version && section == k.section
+					&& page == k.page;
+		}
+
+		public int hashCode() {
+			int h = (executable.hashCode() * 31 + length) * 31 + version;
+			return (h * 31 + section) * 31 + page;
+		}
+
+		private String executable;
+		private int length, version, section, page;
+	}
+
+	private static class Entry {
+		Entry(Key key, int ppn) {
+			this.key = key;
+			this.ppn = ppn;
+		}
+
+		private Key key;
+		private int ppn;
+		private int references = 1;
+	}
+
+	private FrameAllocator frameAllocator;
+	private Map<Key, Entry> byKey = new HashMap<Key, Entry>();
+	private Map<Integer, Entry> byFrame = new HashMap<Integer, Entry>();
+	private int hits = 0, misses = 0;
+
+	private Lock lock = new Lock();
+}
@@ -0,0 +1,210 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A pair of rings in a user process's memory through which the process can
+ * queue many I/O requests and collect their results with at most one trap.
+ *
+ * <p>
+ * The process writes submission entries at the tail of the submission ring
+ * and advances the tail. The kernel consumes entries from the head, runs each
+ * request as the matching syscall would, and posts a completion entry carrying
+ * the request's <i>user_data</i> and result at the tail of the completion
+ * ring. The process consumes completions by advancing the completion head.
+ * Heads and tails are free-running counters; an entry's slot is the counter
+ * modulo the number of entries.
+ *
+ * <p>
+ * The kernel consumes submissions when the process calls
+ * <tt>ring_enter()</tt>, or, for a ring set up with <tt>RING_POLL</tt>, on
+ * its own every <tt>pollTicks</tt> ticks from a kernel thread.
+ *
+ * <p>
+ * The layout in user memory, in 32-bit words, is a header of
+ * <tt>sq_head, sq_tail, cq_head, cq_tail, entries, flags</tt>, then
+ * <i>entries</i> submission entries of
+ * <tt>opcode, fd, addr, len, user_data</tt>, then <i>entries</i> completion
+ * entries of <tt>user_data, result</tt>.
+ */
+public class SubmissionRing {
+	/**
+	 * Attach a ring to a process.
+	 *
+	 * @param process
+	 *            the process whose memory holds the ring.
+	 * @param address
+	 *            the virtual address of the ring header.
+	 * @param entries
+	 *            the number of entries in each ring, a power of two.
+	 * @param flags
+	 *            <tt>flagPoll</tt> to have a kernel thread poll the ring.
+	 */
+	SubmissionRing(UserProcess process, int address, int entries, int flags) {
+		Lib.assertTrue(isValidSize(entries));
+
+		this.process = process;
+		this.address = address;
+		this.entries = entries;
+
+		sqAddress = address + headerSize;
+		cqAddress = sqAddress + entries * sqeSize;
+
+		if ((flags & flagPoll) != 0) {
+			poller = new KThread(new Runnable() {
+				public void run() {
+					poll();
+				}
+			}).setName("ring poller");
+			poller.fork();
+		}
+	}
+
+	/**
+	 * Return whether a ring with this many entries can be set up.
+	 *
+	 * @param entries
+	 *            the number of entries in each ring.
+	 * @return <tt>true</tt> if <i>entries</i> is a power of two no larger
+	 *         than <tt>maxEntries</tt>.
+	 */
+	static boolean isValidSize(int entries) {
+		return entries > 0 && entries <= maxEntries
+				&& (entries & (entries - 1)) == 0;
+	}
+
+	/**
+	 * Return the number of bytes a ring with this many entries occupies.
+	 *
+	 * @param entries
+	 *            the number of entries in each ring.
+	 * @return the size of the ring in user memory.
+	 */
+	static int size(int entries) {
+		return headerSize + entries * (sqeSize + cqeSize);
+	}
+
+	/**
+	 * Run every queued submission, as long as there is room in the completion
+	 * ring for its result.
+	 *
+	 * @return the number of submissions consumed, or -1 if the ring is not
+	 *         readable and writable.
+	 */
+	int submit() {
+		lock.acquire();
+		int consumed = consume();
+		lock.release();
+
+		return consumed;
+	}
+
+	/**
+	 * Stop polling. The poller is not waited for, since it may be blocked in
+	 * an operation (reading a pipe, say) that never completes; it stops once
+	 * that operation returns.
+	 */
+	void shutdown() {
+		// without the lock, which a blocked poller holds
+		stopped = true;
+	}
+
+	private int consume() {
+		Lib.assertTrue(lock.isHeldByCurrentThread());
+
+		if (stopped)
+			return -1;
+
+		byte[] header = new byte[headerSize];
+		if (process.readVirtualMemory(address, header) < headerSize)
+			return -1;
+
+		int sqHead = Lib.bytesToInt(header, 0);
+		int sqTail = Lib.bytesToInt(header, 4);
+		int cqHead = Lib.bytesToInt(header, 8);
+		int cqTail = Lib.bytesToInt(header, 12);
+
+		// the process may have changed the counters to anything
+		if (sqTail - sqHead < 0 || sqTail - sqHead > entries
+				|| cqTail - cqHead < 0 || cqTail - cqHead > entries)
+			return -1;
+
+		byte[] sqe = new byte[sqeSize];
+		byte[] cqe = new byte[cqeSize];
+		int consumed = 0;
+		boolean failed = false;
+		while (!stopped && sqHead != sqTail && cqTail - cqHead < entries) {
+			int slot = sqHead & (entries - 1);
+			if (process.readVirtualMemory(sqAddress + slot * sqeSize, sqe) < sqeSize) {
+				failed = true;
+				break;
+			}
+
+			int result = process.handleRingOp(Lib.bytesToInt(sqe, 0),
+					Lib.bytesToInt(sqe, 4), Lib.bytesToInt(sqe, 8),
+					Lib.bytesToInt(sqe, 12));
+
+			// the operation has run, so it must not run again, even if its
+			// completion cannot be posted
+			sqHead++;
+			consumed++;
+
+			Lib.bytesFromInt(cqe, 0, Lib.bytesToInt(sqe, 16));
+			Lib.bytesFromInt(cqe, 4, result);
+			slot = cqTail & (entries - 1);
+			if (process.writeVirtualMemory(cqAddress + slot * cqeSize, cqe) < cqeSize) {
+				failed = true;
+				break;
+			}
+			cqTail++;
+		}
+
+		// publish the new counters, even after a failure, so that entries
+		// already consumed are not run twice; the process owns sq_tail and
+		// cq_head
+		if (process.writeVirtualMemory(address, Lib.bytesFromInt(sqHead)) < 4
+				|| process.writeVirtualMemory(address + 12,
+						Lib.bytesFromInt(cqTail)) < 4)
+			return -1;
+
+		return failed ? -1 : consumed;
+	}
+
+	private void poll() {
+		while (true) {
+			lock.acquire();
+			boolean done = stopped || consume() < 0;
+			lock.release();
+
+			if (done)
+				return;
+
+			ThreadedKernel.alarm.waitUntil(pollTicks);
+		}
+	}
+
+	private UserProcess process;
+	private int address, sqAddress, cqAddress;
+	private int entries;
+
+	private KThread poller = null;
+	private boolean stopped = false;
+	private Lock lock = new Lock();
+
+	/** Set up a kernel thread to poll the ring. */
+	static final int flagPoll = 1;
+
+	/** How often a polled ring is checked, in ticks. */
+	static final int pollTicks = 500;
+
+	static final int maxEntries = 4096;
+
+	private static final int headerSize = 24;
+	private static final int sqeSize = 20;
+	private static final int cqeSize = 8;
+
+	/** Submission opcodes. */
+	static final int opNop = 0, opRead = 1, opWrite = 2, opOpen = 3,
+			opClose = 4, opCreate = 5;
+}
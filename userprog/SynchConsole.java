@@ -1,5 +1,7 @@
 package nachos.userprog;
 
+import java.util.LinkedList;
+
 import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
@@ -69,6 +71,7 @@ public class SynchConsole {
 	private void receiveInterrupt() {
 	charAvailable = true;
 	readWait.V();
+	Poller.notifyPollers(pollers);
 	}
 
 	/**
@@ -103,8 +106,10 @@ public class SynchConsole {
 	private Lock writeLock = new Lock();
 	private Semaphore readWait = new Semaphore(0);
 	private Semaphore writeWait = new Semaphore(0);
+	/** Pollers waiting for input, protected by disabling interrupts. */
+	private LinkedList<Poller> pollers = new LinkedList<Poller>();
 
-	private class File extends OpenFile {
+	private class File extends OpenFile implements Pollable {
 	File(boolean canRead, boolean canWrite) {
 		super(null, "SynchConsole");
 		
@@ -142,6 +147,27 @@ public class SynchConsole {
 		return length;
 	}
 
+	public int getReadiness() {
+		int readiness = 0;
+		if (canRead && charAvailable)
+		readiness |= Poller.pollIn;
+		if (canWrite)
+		readiness |= Poller.pollOut;
+		return readiness;
+	}
+
+	public void addPoller(Poller poller) {
+		boolean intStatus = Machine.interrupt().disable();
+		pollers.add(poller);
+		Machine.interrupt().restore(intStatus);
+	}
+
+	public void removePoller(Poller poller) {
+		boolean intStatus = Machine.interrupt().disable();
+		pollers.remove(poller);
+		Machine.interrupt().restore(intStatus);
+	}
+
 	private boolean canRead, canWrite;
 	}
 }
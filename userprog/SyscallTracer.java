@@ -0,0 +1,185 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+/**
+ * Records the syscalls made by one process. Each call's number, arguments,
+ * result and entry and exit times go into a ring buffer holding the most
+ * recent calls, and per-syscall totals (number of calls, total ticks and
+ * longest call) are kept over every call recorded.
+ *
+ * <p>
+ * Every record and counter is allocated up front, so recording a call only
+ * stores a few integers. Nothing is formatted until a summary is printed.
+ */
+public class SyscallTracer {
+	/**
+	 * Allocate a new tracer.
+	 *
+	 * @param capacity
+	 *            the number of recent calls to keep.
+	 */
+	public SyscallTracer(int capacity) {
+		Lib.assertTrue(capacity > 0);
+
+		records = new Record[capacity];
+		for (int i = 0; i < capacity; i++)
+			records[i] = new Record();
+	}
+
+	/**
+	 * Record a completed syscall.
+	 *
+	 * @param syscall
+	 *            the syscall number.
+	 * @param a0
+	 *            the first syscall argument.
+	 * @param a1
+	 *            the second syscall argument.
+	 * @param a2
+	 *            the third syscall argument.
+	 * @param a3
+	 *            the fourth syscall argument.
+	 * @param result
+	 *            the value returned to the process.
+	 * @param entry
+	 *            the time the syscall was entered.
+	 * @param exit
+	 *            the time it returned.
+	 */
+	public void record(int syscall, int a0, int a1, int a2, int a3,
+			int result, long entry, long exit) {
+		Record r = records[(int) (numRecorded % records.length)];
+		r.syscall = syscall;
+		r.a0 = a0;
+		r.a1 = a1;
+		r.a2 = a2;
+		r.a3 = a3;
+		r.result = result;
+		r.entry = entry;
+		r.exit = exit;
+		numRecorded++;
+
+		if (syscall >= 0 && syscall < maxSyscall) {
+			long ticks = exit - entry;
+			counts[syscall]++;
+			totalTicks[syscall] += ticks;
+			if (ticks > maxTicks[syscall])
+				maxTicks[syscall] = ticks;
+		}
+	}
+
+	/**
+	 * Return the number of calls recorded, including those no longer in the
+	 * ring buffer.
+	 *
+	 * @return the number of calls recorded.
+	 */
+	public long getNumRecorded() {
+		return numRecorded;
+	}
+
+	/**
+	 * Return the number of recorded calls to a syscall.
+	 *
+	 * @param syscall
+	 *            the syscall number.
+	 * @return the number of calls.
+	 */
+	public int getCount(int syscall) {
+		return counts[syscall];
+	}
+
+	/**
+	 * Return the total ticks spent in a syscall.
+	 *
+	 * @param syscall
+	 *            the syscall number.
+	 * @return the total ticks.
+	 */
+	public long getTotalTicks(int syscall) {
+		return totalTicks[syscall];
+	}
+
+	/**
+	 * Return the longest single call to a syscall.
+	 *
+	 * @param syscall
+	 *            the syscall number.
+	 * @return the maximum ticks.
+	 */
+	public long getMaxTicks(int syscall) {
+		return maxTicks[syscall];
+	}
+
+	/**
+	 * Print the calls still in the ring buffer, oldest first.
+	 *
+	 * @param pid
+	 *            the process being traced.
+	 */
+	public void printCalls(int pid) {
+		long first = Math.max(0, numRecorded - records.length);
+		for (long n = first; n < numRecorded; n++) {
+			Record r = records[(int) (n % records.length)];
+			System.out.println("[" + pid + "] " + r.entry + "-" + r.exit + " "
+					+ getName(r.syscall) + "(" + r.a0 + ", " + r.a1 + ", "
+					+ r.a2 + ", " + r.a3 + ") = " + r.result);
+		}
+	}
+
+	/**
+	 * Print the number of calls, total ticks and maximum ticks of every
+	 * syscall the process has made, and how much physical memory is free and
+	 * how fragmented it is.
+	 *
+	 * @param pid
+	 *            the process being traced.
+	 */
+	public void printSummary(int pid) {
+		System.out.println("Syscalls by process " + pid + ": " + numRecorded
+				+ " calls");
+		for (int i = 0; i < maxSyscall; i++) {
+			if (counts[i] == 0)
+				continue;
+			System.out.println("\t" + getName(i) + ": calls " + counts[i]
+					+ ", ticks " + totalTicks[i] + ", max " + maxTicks[i]);
+		}
+
+		FrameAllocator frames = UserKernel.frameAllocator;
+		System.out.println("\tframes: free " + frames.getNumFree() + " of "
+				+ frames.getNumFrames() + ", largest free run "
+				+ frames.getLargestFreeRun() + ", fragmentation "
+				+ Math.round(frames.getFragmentation() * 100) + "%");
+	}
+
+	private static String getName(int syscall) {
+		if (syscall >= 0 && syscall < names.length)
+			return names[syscall];
+		return "syscall" + syscall;
+	}
+
+	private static class Record {
+		int syscall, a0, a1, a2, a3, result;
+		long entry, exit;
+	}
+
+	private Record[] records;
+	private long numRecorded = 0;
+
+	private int[] counts = new int[maxSyscall];
+	private long[] totalTicks = new long[maxSyscall];
+	private long[] maxTicks = new long[maxSyscall];
+
+	/** Syscall numbers at or above this are traced but not counted. */
+	private static final int maxSyscall = 64;
+
+	/** Syscall names, by number; keep in step with <tt>syscall.h</tt>. */
+	private static final String[] names = { "halt", "exit", "exec", "join",
+			"creat", "open", "read", "write", "close", "unlink", "mmap",
+			"connect", "accept", "readv", "writev", "pipe", "ring_setup",
+			"ring_enter", "aread", "awrite", "await", "apoll", "trace",
+			"sbrk", "shmget", "shmat", "shmdt", "futex", "thread_create",
+			"thread_exit", "thread_join", "sleep", "gettime", "poll", "dup",
+			"dup2", "lseek", "pread", "pwrite", "copyfile" };
+}
@@ -24,8 +24,27 @@ public class UThread extends KThread {
 		this.process = process;
 	}
 
+	/**
+	 * Allocate a new UThread that starts running user code at <i>pc</i>, with
+	 * its stack pointer at <i>sp</i> and <i>arg</i> as its first argument,
+	 * instead of at the start of the process's program.
+	 */
+	public UThread(UserProcess process, int pc, int sp, int arg) {
+		this(process);
+
+		userRegisters[Processor.regPC] = pc;
+		userRegisters[Processor.regSP] = sp;
+		userRegisters[Processor.regA0] = arg;
+		hasRegisters = true;
+	}
+
 	private void runProgram() {
-		process.initRegisters();
+		if (hasRegisters) {
+			for (int i = 0; i < Processor.numUserRegisters; i++)
+				Machine.processor().writeRegister(i, userRegisters[i]);
+		} else {
+			process.initRegisters();
+		}
 		process.restoreState();
 
 		Machine.processor().run();
@@ -72,4 +91,7 @@ public class UThread extends KThread {
 	 * The process to which this thread belongs.
 	 */
 	public UserProcess process;
+
+	/** Whether the thread starts with the registers in userRegisters. */
+	private boolean hasRegisters = false;
 }
@@ -1,7 +1,6 @@
 package nachos.userprog;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Map;
 
 import nachos.machine.*;
@@ -38,19 +37,19 @@ public class UserKernel extends ThreadedKernel {
 		
 
 		fileManager = new FileManager();
-		pageMutex = new Lock();
-		avaPages = new LinkedList<Integer>();
-
-		pageMutex.acquire();
-
-		int numPages = Machine.processor().getNumPhysPages();
-
-		avaPages.clear();
-		for (int i = 0; i < numPages; i++) {
-			avaPages.add(i);
-		}
-
-		pageMutex.release();
+		frameAllocator = new FrameAllocator(Machine.processor()
+				.getNumPhysPages());
+		sharedPages = new SharedPageCache(frameAllocator);
+		sharedMemory = new SharedMemory(frameAllocator);
+		futexes = new FutexTable();
+		executableCache = new ExecutableCache(Config.getInteger(
+				"UserKernel.executableCacheSize", 1 << 20));
+		asyncIO = new AsyncIO(Config.getInteger("UserKernel.asyncWorkers", 4),
+				Config.getInteger("UserKernel.asyncQueueSize", 64));
+		traceSyscalls = Config.getBoolean("UserKernel.traceSyscalls", false);
+		traceBufferSize = Config.getInteger("UserKernel.traceBufferSize", 64);
+		maxStackPages = Config.getInteger("UserKernel.maxStackPages", 256);
+		maxOpenFiles = Config.getInteger("UserKernel.maxOpenFiles", 1024);
 		
 	}
 
@@ -75,6 +74,9 @@ public class UserKernel extends ThreadedKernel {
 		super.selfTest();
 		
 		// self.selfTest1();
+		// FrameAllocator.selfTest();
+		// Pipe.selfTest();
+		// DescriptorTable.selfTest();
 	}
 
 	/**
@@ -234,6 +236,24 @@ public class UserKernel extends ThreadedKernel {
 	// dummy variables to make javac smarter
 	private static Coff dummy1 = null;
 
-	protected static LinkedList<Integer> avaPages;
-	protected static Lock pageMutex;
+	/** The free physical pages. */
+	protected static FrameAllocator frameAllocator;
+	/** Read-only executable pages shared between processes. */
+	protected static SharedPageCache sharedPages;
+	/** Recently run executables, parsed and loaded. */
+	protected static ExecutableCache executableCache;
+	/** The shared memory segments user processes have created. */
+	protected static SharedMemory sharedMemory;
+	/** Threads sleeping in futex(). */
+	protected static FutexTable futexes;
+	/** Runs asynchronous read and write requests. */
+	protected static AsyncIO asyncIO;
+	/** Whether every process traces its syscalls from the start. */
+	protected static boolean traceSyscalls;
+	/** The number of recent syscalls each traced process keeps. */
+	protected static int traceBufferSize;
+	/** The most pages a process's stack may grow to. */
+	protected static int maxStackPages;
+	/** The most file descriptors a process may have open. */
+	protected static int maxOpenFiles;
 }
@@ -5,10 +5,13 @@ import nachos.threads.*;
 import nachos.userprog.*;
 
 import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.swing.text.AsyncBoxView.ChildLocator;
 
@@ -32,9 +35,11 @@ public class UserProcess {
 		boolean intStatus = Machine.interrupt().disable();
 		// disable here to make sure processId is unique
 		processId = processCounter++;
-		fileList = new OpenFile[MAX_FILE_OPEN];
-		fileList[0] = UserKernel.console.openForReading();
-		fileList[1] = UserKernel.console.openForWriting();
+		descriptors = new DescriptorTable(UserKernel.maxOpenFiles);
+		descriptors.open(UserKernel.console.openForReading());
+		descriptors.open(UserKernel.console.openForWriting());
+		if (UserKernel.traceSyscalls)
+			handleTrace(TRACE_ON);
 
 		// comment them out
 		// int numPhysPages = Machine.processor().getNumPhysPages();
@@ -142,7 +147,10 @@ public class UserProcess {
 	// translate the virtual address to physical address, -1 if error occurs
 	private int virtualToPhysical(int vaddr, TranslationEntry entry,
 			boolean write) {
-		if (!entry.valid || entry.readOnly && write)
+		// the page may not have been touched yet
+		if (!entry.valid && !handlePageFault(entry.vpn))
+			return -1;
+		if (entry.readOnly && write)
 			return -1;
 		int offset = vaddr - entry.vpn * pageSize;
 		return entry.ppn * pageSize + offset;
@@ -171,11 +179,11 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
-		if (vaddr < 0 || vaddr >= numPages * pageSize)
+		if (vaddr < 0 || vaddr >= pageTable.length * pageSize)
 			return 0;
 
-		if (vaddr + length > numPages * pageSize)
-			length = numPages * pageSize - vaddr;
+		if (vaddr + length > pageTable.length * pageSize)
+			length = pageTable.length * pageSize - vaddr;
 
 		// special check for length==0
 		if (length == 0)
@@ -194,6 +202,8 @@ public class UserProcess {
 			int start = Math.max(startAddr, page * pageSize);
 			int end = Math.min(endAddr, (page + 1) * pageSize - 1);
 			TranslationEntry entry = pageTable[page];
+			if (entry == null)
+				break;
 
 			int phy = virtualToPhysical(start, entry, false);
 			if (phy < 0)
@@ -243,10 +253,10 @@ public class UserProcess {
 		Lib.assertTrue(offset >= 0 && length >= 0
 				&& offset + length <= data.length);
 
-		if (vaddr < 0 || vaddr >= numPages * pageSize)
+		if (vaddr < 0 || vaddr >= pageTable.length * pageSize)
 			return 0;
-		if (vaddr + length > numPages * pageSize)
-			length = numPages * pageSize - vaddr;
+		if (vaddr + length > pageTable.length * pageSize)
+			length = pageTable.length * pageSize - vaddr;
 
 		// special check for length==0
 		if (length == 0)
@@ -265,6 +275,8 @@ public class UserProcess {
 			int start = Math.max(startAddr, page * pageSize);
 			int end = Math.min(endAddr, (page + 1) * pageSize - 1);
 			TranslationEntry entry = pageTable[page];
+			if (entry == null)
+				break;
 
 			int phy = virtualToPhysical(start, entry, true);
 			if (phy < 0)
@@ -301,21 +313,35 @@ public class UserProcess {
 			Lib.debug(dbgProcess, "\topen failed");
 			return false;
 		}
-		try {
-			coff = new Coff(executable);
-		} catch (EOFException e) {
+		executableName = name;
+		executableLength = executable.length();
+		executableVersion = UserKernel.executableCache.acquire(name);
+		image = UserKernel.executableCache.get(name, executableLength);
+		if (image != null) {
+			// everything we need is in memory already
 			executable.close();
-			UserKernel.fileManager.close(name);
-			Lib.debug(dbgProcess, "\tcoff load failed");
-			return false;
+			coff = null;
+		} else {
+			try {
+				coff = new Coff(executable);
+			} catch (EOFException e) {
+				executable.close();
+				UserKernel.executableCache.release(name);
+				UserKernel.fileManager.close(name);
+				Lib.debug(dbgProcess, "\tcoff load failed");
+				return false;
+			}
+			image = new ExecutableCache.Image(name, executableLength,
+					executableVersion, coff);
 		}
 
 		// make sure the sections are contiguous and start at page 0
 		numPages = 0;
-		for (int s = 0; s < coff.getNumSections(); s++) {
-			CoffSection section = coff.getSection(s);
+		for (int s = 0; s < image.getNumSections(); s++) {
+			ExecutableCache.Image.Section section = image.getSection(s);
 			if (section.getFirstVPN() != numPages) {
-				coff.close();
+				closeExecutable();
+				UserKernel.executableCache.release(name);
 				UserKernel.fileManager.close(name);
 				Lib.debug(dbgProcess, "\tfragmented executable");
 				return false;
@@ -331,27 +357,39 @@ public class UserProcess {
 			argsSize += 4 + argv[i].length + 1;
 		}
 		if (argsSize > pageSize) {
-			coff.close();
+			closeExecutable();
 			Lib.debug(dbgProcess, "\targuments too long");
+			UserKernel.executableCache.release(name);
 			UserKernel.fileManager.close(name);
 			return false;
 		}
 
 		// program counter initially points at the program entry point
-		initialPC = coff.getEntryPoint();
-
-		// next comes the stack; stack pointer initially points to top of it
-		numPages += stackPages;
+		initialPC = image.getEntryPoint();
+
+		// next comes the stack; stack pointer initially points to top of it.
+		// Only the region is reserved here: the stack grows down into it a
+		// page at a time as it is touched
+		stackLimitVPN = numPages;
+		numPages += UserKernel.maxStackPages;
+		stackVPN = numPages;
 		initialSP = numPages * pageSize;
 
 		// and finally reserve 1 page for arguments
 		numPages++;
+
+		// the heap starts out empty, just above the arguments, and may grow
+		// as large as physical memory; shared memory and the stacks of
+		// other threads are mapped above that
+		heapStart = programBreak = numPages * pageSize;
+		mappingVPN = numPages + Machine.processor().getNumPhysPages();
 		if (!loadSections()) {
-			coff.close();
+			closeExecutable();
+			UserKernel.executableCache.release(name);
 			UserKernel.fileManager.close(name);
 			return false;
 		}
-		coff.close();
+
 		// store arguments in last page
 		int entryOffset = (numPages - 1) * pageSize;
 		int stringOffset = entryOffset + args.length * 4;
@@ -359,84 +397,229 @@ public class UserProcess {
 		this.argc = args.length;
 		this.argv = entryOffset;
 
-		for (int i = 0; i < argv.length; i++) {
+		// writing the arguments faults in their page, which can fail
+		boolean ok = true;
+		for (int i = 0; i < argv.length && ok; i++) {
 			byte[] stringOffsetBytes = Lib.bytesFromInt(stringOffset);
-			Lib.assertTrue(writeVirtualMemory(entryOffset, stringOffsetBytes) == 4);
+			ok &= writeVirtualMemory(entryOffset, stringOffsetBytes) == 4;
 			entryOffset += 4;
-			Lib.assertTrue(writeVirtualMemory(stringOffset, argv[i]) == argv[i].length);
+			ok &= writeVirtualMemory(stringOffset, argv[i]) == argv[i].length;
 			stringOffset += argv[i].length;
-			Lib.assertTrue(writeVirtualMemory(stringOffset, new byte[] { 0 }) == 1);
+			ok &= writeVirtualMemory(stringOffset, new byte[] { 0 }) == 1;
 			stringOffset += 1;
 		}
+		if (!ok) {
+			closeExecutable();
+			unloadSections();
+			UserKernel.fileManager.close(name);
+			return false;
+		}
 
-		UserKernel.fileManager.close(name);
+		// a process still loading pages from the file keeps it open
+		if (coff == null)
+			UserKernel.fileManager.close(name);
 		return true;
 	}
 
 	/**
-	 * Allocates memory for this process, and loads the COFF sections into
-	 * memory. If this returns successfully, the process will definitely be run
-	 * (this is the last step in process initialization that can fail).
+	 * Sets up the page table for this process. No memory is allocated and
+	 * nothing is loaded yet: every entry starts out invalid, and
+	 * <tt>handlePageFault()</tt> fills in each page the first time it is
+	 * touched. A process may therefore still be killed later if physical
+	 * memory runs out.
 	 *
 	 * @return <tt>true</tt> if the sections were successfully loaded.
 	 */
 	protected boolean loadSections() {
-		UserKernel.pageMutex.acquire();
-		LinkedList<Integer> avaPages = UserKernel.avaPages;
+		pageTable = new TranslationEntry[numPages];
+		for (int vpn = 0; vpn < numPages; vpn++)
+			pageTable[vpn] = new TranslationEntry(vpn, 0, false, false, false,
+					false);
 
-		if (numPages > avaPages.size()) {
-			UserKernel.pageMutex.release();
-			coff.close();
-			Lib.debug(dbgProcess, "\tinsufficient physical memory");
+		return true;
+	}
+
+	/**
+	 * Load a page of this process that has not been touched yet: map it from
+	 * the shared page cache if it is read-only and cached, otherwise allocate
+	 * a frame and fill it from its section, or with zeros for the stack and
+	 * arguments.
+	 *
+	 * @param vpn
+	 *            the virtual page to load.
+	 * @return <tt>true</tt> if the page is now valid.
+	 */
+	protected boolean handlePageFault(int vpn) {
+		// once the process is exiting its executable may already be closed
+		if (exited || vpn < 0 || vpn >= pageTable.length
+				|| pageTable[vpn] == null)
 			return false;
+
+		TranslationEntry entry = pageTable[vpn];
+		if (entry.valid)
+			return true;
+
+		// below the stack: grow it, unless this is too far below to be a
+		// push or a new frame
+		if (vpn >= stackLimitVPN && vpn < stackVPN) {
+			if (stackVPN - vpn > MAX_STACK_GROWTH) {
+				Lib.debug(dbgProcess, "	fault too far below the stack");
+				return false;
+			}
+			stackVPN = vpn;
 		}
 
-		// set pageTable
-		pageTable = new TranslationEntry[numPages];
-		for (int i = 0; i < numPages; i++) {
-			int ppn = avaPages.poll();
-			pageTable[i] = new TranslationEntry(i, ppn, true, false, false,
-					false);
+		int s, spn = 0;
+		ExecutableCache.Image.Section section = null;
+		for (s = 0; s < image.getNumSections(); s++) {
+			ExecutableCache.Image.Section candidate = image.getSection(s);
+			spn = vpn - candidate.getFirstVPN();
+			if (spn >= 0 && spn < candidate.getLength()) {
+				section = candidate;
+				break;
+			}
+		}
+		boolean shared = section != null && section.isReadOnly();
+
+		int ppn = -1;
+		if (shared) {
+			ppn = UserKernel.sharedPages.acquire(executableName,
+					executableLength, executableVersion, s, spn);
+			if (ppn != -1)
+				section.capturePage(spn, ppn);
 		}
-		UserKernel.pageMutex.release();
 
-		// load sections
-		for (int s = 0; s < coff.getNumSections(); s++) {
-			CoffSection section = coff.getSection(s);
+		if (ppn == -1) {
+			ppn = UserKernel.frameAllocator.allocate();
+			if (ppn == -1) {
+				Lib.debug(dbgProcess, "\tinsufficient physical memory");
+				return false;
+			}
 
-			Lib.debug(dbgProcess, "\tinitializing " + section.getName()
-					+ " section (" + section.getLength() + " pages)");
+			// copy from the cached image if we can, else read the file
+			if (section == null) {
+				Arrays.fill(Machine.processor().getMemory(), ppn * pageSize,
+						(ppn + 1) * pageSize, (byte) 0);
+			} else if (section.hasPage(spn)) {
+				section.loadPage(spn, ppn);
+			} else {
+				loadFromExecutable(s, spn, ppn);
+				section.capturePage(spn, ppn);
+			}
 
-			for (int i = 0; i < section.getLength(); i++) {
-				int vpn = section.getFirstVPN() + i;
+			if (shared)
+				ppn = UserKernel.sharedPages.add(executableName,
+						executableLength, executableVersion, s, spn, ppn);
+		}
+
+		// another thread may have loaded the page, or exited the process,
+		// while we were blocked
+		if (entry.valid || exited) {
+			if (shared)
+				UserKernel.sharedPages.release(ppn);
+			else
+				UserKernel.frameAllocator.free(ppn);
+			return !exited;
+		}
 
-				section.loadPage(i, pageTable[vpn].ppn);
+		entry.ppn = ppn;
+		entry.readOnly = shared;
+		entry.valid = true;
 
-				pageTable[vpn].readOnly = section.isReadOnly();
-			}
+		// the first time every page has been seen, the file is not needed
+		if (coff != null && image.isComplete()) {
+			UserKernel.executableCache.put(image);
+			releaseExecutable();
 		}
 
 		return true;
 	}
 
+	// close the executable, if it was opened rather than found in the cache
+	private void closeExecutable() {
+		if (coff != null) {
+			coff.close();
+			coff = null;
+		}
+	}
+
+	// close the executable once this process no longer needs it, or once
+	// the last thread reading a page from it is done
+	private void releaseExecutable() {
+		if (executableReaders > 0) {
+			executableReleased = true;
+		} else if (coff != null) {
+			closeExecutable();
+			UserKernel.fileManager.close(executableName);
+		}
+	}
+
+	// read a page of the executable, which is kept open while we block
+	private void loadFromExecutable(int s, int spn, int ppn) {
+		executableReaders++;
+		coff.getSection(s).loadPage(spn, ppn);
+		executableReaders--;
+
+		if (executableReaders == 0 && executableReleased) {
+			executableReleased = false;
+			releaseExecutable();
+		}
+	}
+
 	/**
-	 * Release any resources allocated by <tt>loadSections()</tt>.
+	 * If this process read its executable from the file rather than the
+	 * executable cache, read the pages it never touched too, and cache the
+	 * whole image for the next process to run the program. Nothing is read if
+	 * the image could not be cached anyway: if it is too large, if another
+	 * process cached the program first, or if the file has changed since this
+	 * process loaded it.
 	 */
-	protected void unloadSections() {
-		UserKernel.pageMutex.acquire();
-		LinkedList<Integer> avaPages = UserKernel.avaPages;
-
-		for (int i = 0; i < numPages; i++) {
-			avaPages.add(pageTable[i].ppn);
+	private void completeImage() {
+		if (coff == null)
+			return;
+
+		int scratch = -1;
+		if (UserKernel.executableCache.wants(image))
+			scratch = UserKernel.frameAllocator.allocate();
+		if (scratch != -1) {
+			for (int s = 0; s < image.getNumSections(); s++) {
+				ExecutableCache.Image.Section section = image.getSection(s);
+				for (int spn = 0; spn < section.getLength(); spn++) {
+					if (!section.hasPage(spn)) {
+						loadFromExecutable(s, spn, scratch);
+						section.capturePage(spn, scratch);
+					}
+				}
+			}
+			UserKernel.frameAllocator.free(scratch);
+			UserKernel.executableCache.put(image);
 		}
 
-		UserKernel.pageMutex.release();
+		releaseExecutable();
+	}
 
-		// close all the file that it opened
-		for (int i = 0; i < fileList.length; i++) {
-			if (fileList[i] != null)
-				handleClose(i);
+	/**
+	 * Release any resources allocated by <tt>loadSections()</tt>.
+	 */
+	protected void unloadSections() {
+		releaseSharedMemory();
+
+		// read-only pages belong to the shared page cache
+		int[] frames = new int[pageTable.length];
+		int count = 0;
+		for (int i = 0; i < pageTable.length; i++) {
+			if (pageTable[i] == null || !pageTable[i].valid)
+				continue;
+			if (pageTable[i].readOnly)
+				UserKernel.sharedPages.release(pageTable[i].ppn);
+			else
+				frames[count++] = pageTable[i].ppn;
 		}
+		UserKernel.frameAllocator.free(frames, 0, count);
+		releaseExecutable();
+		UserKernel.executableCache.release(executableName);
+
+		closeDescriptors();
 	}
 
 	/**
@@ -476,28 +659,28 @@ public class UserProcess {
 		return 0;
 	}
 
+	// forget everything cached about a file that has changed; only a running
+	// or cached executable can have shared pages
+	private void fileChanged(String name) {
+		if (UserKernel.executableCache.invalidate(name))
+			UserKernel.sharedPages.invalidate(name);
+	}
+
 	private int handleCreate(int address) {
 		if (address < 0)
 			return -1;
 		String file = readVirtualMemoryString(address, 256);
 		if (file == null)
 			return -1;
-		int idx = -1;
-		for (int i = 0; i < fileList.length; i++) {
-			if (fileList[i] == null) {
-				idx = i;
-				break;
-			}
-		}
-		if (idx == -1)
+		if (descriptors.getNumOpen() == descriptors.getLimit())
 			return -1;
 		if (!UserKernel.fileManager.create(file))
 			return -1;
+		fileChanged(file);
 		OpenFile openFile = UserKernel.fileSystem.open(file, true);
 		if (openFile == null)
 			return -1;
-		fileList[idx] = openFile;
-		return idx;
+		return descriptors.open(openFile);
 	}
 
 	private int handleOpen(int address) {
@@ -506,15 +689,7 @@ public class UserProcess {
 		String file = readVirtualMemoryString(address, 256);
 		if (file == null)
 			return -1;
-		int idx = -1;
-		for (int i = 0; i < fileList.length; i++) {
-			if (fileList[i] == null) {
-				idx = i;
-				break;
-			}
-		}
-
-		if (idx == -1)
+		if (descriptors.getNumOpen() == descriptors.getLimit())
 			return -1;
 
 		OpenFile openFile = UserKernel.fileSystem.open(file, false);
@@ -523,81 +698,892 @@ public class UserProcess {
 		if (!UserKernel.fileManager.open(file))
 			return -1;
 
-		fileList[idx] = openFile;
-		return idx;
+		return descriptors.open(openFile);
 	}
 
 	private int handleClose(int idx) {
-		if (idx < 0 || idx >= fileList.length)
+		if (descriptors.get(idx) == null)
 			return -1;
-		OpenFile openFile = fileList[idx];
-		String name = openFile.getName();
-		openFile.close();
-		fileList[idx] = null;
-		if (UserKernel.fileManager.close(name))
+		// the file stays open while another descriptor refers to it
+		OpenFile openFile = descriptors.close(idx);
+		if (openFile == null || closeFile(openFile))
 			return 0;
 		else
 			return -1;
 	}
 
+	// wake this process's threads blocked on a pipe, which another process
+	// may keep open
+	private void interruptPipes() {
+		for (int i = 0; i < descriptors.getCapacity(); i++) {
+			if (descriptors.get(i) instanceof Pipe.End)
+				((Pipe.End) descriptors.get(i)).getPipe().interrupt();
+		}
+	}
+
+	// close every descriptor this process still has open
+	private void closeDescriptors() {
+		for (int i = 0; i < descriptors.getCapacity(); i++) {
+			if (descriptors.get(i) != null)
+				handleClose(i);
+		}
+	}
+
+	private int handleDup(int idx) {
+		if (descriptors.get(idx) == null)
+			return -1;
+		return descriptors.dup(idx);
+	}
+
+	private int handleDup2(int idx, int newIdx) {
+		if (descriptors.get(idx) == null || newIdx < 0
+				|| newIdx >= descriptors.getLimit())
+			return -1;
+		if (newIdx == idx)
+			return newIdx;
+		if (descriptors.get(newIdx) != null)
+			handleClose(newIdx);
+		descriptors.dup2(idx, newIdx);
+		return newIdx;
+	}
+
+	// close a descriptor's file, and tell the file manager if it is on disk
+	private boolean closeFile(OpenFile openFile) {
+		String name = openFile.getName();
+		openFile.close();
+		if (openFile.getFileSystem() != UserKernel.fileSystem)
+			return true;
+		return UserKernel.fileManager.close(name);
+	}
+
+	private int handlePipe(int address) {
+		if (address < 0)
+			return -1;
+
+		if (descriptors.getLimit() - descriptors.getNumOpen() < 2)
+			return -1;
+
+		Pipe pipe = new Pipe();
+		int readIdx = descriptors.open(pipe.openForReading());
+		int writeIdx = descriptors.open(pipe.openForWriting());
+
+		byte[] fds = new byte[8];
+		Lib.bytesFromInt(fds, 0, readIdx);
+		Lib.bytesFromInt(fds, 4, writeIdx);
+		if (writeVirtualMemory(address, fds) < fds.length) {
+			handleClose(readIdx);
+			handleClose(writeIdx);
+			return -1;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Give a child about to be executed this process's descriptors, referring
+	 * to the same open files (and so sharing their positions).
+	 */
+	private void inheritDescriptors(UserProcess child) {
+		child.closeDescriptors();
+		child.descriptors = new DescriptorTable(descriptors);
+	}
+
+	/**
+	 * Resolve a range of this process's virtual memory to the physical memory
+	 * backing it, one entry per run of physically adjacent pages. Resolution
+	 * stops at the first page that is not mapped (or is read-only, when
+	 * <i>write</i> is set), so the ranges may cover less than <i>length</i>
+	 * bytes. Every page resolved is marked used, and dirty if <i>write</i>.
+	 *
+	 * <p>
+	 * Every frame resolved is pinned, so that it is not reused while the
+	 * caller blocks, even if another thread exits the process or unmaps the
+	 * page in the meantime. The caller must pass the ranges to
+	 * <tt>unpinVirtualMemory()</tt> when it is done with them.
+	 *
+	 * @param vaddr
+	 *            the first byte of virtual memory.
+	 * @param length
+	 *            the number of bytes.
+	 * @param write
+	 *            whether the kernel is going to write to the memory.
+	 * @return a list of <tt>{physical address, length}</tt> pairs.
+	 */
+	private List<int[]> resolveVirtualMemory(int vaddr, int length,
+			boolean write) {
+		List<int[]> ranges = new LinkedList<int[]>();
+		if (vaddr < 0 || length <= 0)
+			return ranges;
+
+		int[] last = null;
+		while (length > 0) {
+			int page = Machine.processor().pageFromAddress(vaddr);
+			if (page >= pageTable.length || pageTable[page] == null)
+				break;
+
+			TranslationEntry entry = pageTable[page];
+			int phy = virtualToPhysical(vaddr, entry, write);
+			if (phy < 0)
+				break;
+
+			int amount = Math.min(length, (page + 1) * pageSize - vaddr);
+			if (last != null && last[0] + last[1] == phy)
+				last[1] += amount;
+			else {
+				last = new int[] { phy, amount };
+				ranges.add(last);
+			}
+
+			entry.used = true;
+			if (write)
+				entry.dirty = true;
+			UserKernel.frameAllocator.pin(entry.ppn);
+
+			vaddr += amount;
+			length -= amount;
+		}
+
+		return ranges;
+	}
+
+	/**
+	 * Drop the pins <tt>resolveVirtualMemory()</tt> took on the frames of
+	 * some ranges.
+	 *
+	 * @param ranges
+	 *            the ranges it returned.
+	 */
+	private void unpinVirtualMemory(List<int[]> ranges) {
+		for (int[] range : ranges) {
+			int last = (range[0] + range[1] - 1) / pageSize;
+			for (int ppn = range[0] / pageSize; ppn <= last; ppn++)
+				UserKernel.frameAllocator.unpin(ppn);
+		}
+	}
+
 	private int handleRead(int idx, int address, int count) {
-		if (idx < 0 || idx >= fileList.length || address < 0 || count < 0)
+		if (address < 0 || count < 0)
 			return -1;
-		OpenFile openFile = fileList[idx];
+		OpenFile openFile = descriptors.get(idx);
 		if (openFile == null)
 			return -1;
-		int total = 0;
-		byte[] BUFFER = new byte[MAX_BUFFER_SIZE];
-		while (count > 0) {
-			int read = Math.min(count, MAX_BUFFER_SIZE);
-			int got = openFile.read(BUFFER, 0, read);
 
-			if (got < 0)
+		return readToMemory(openFile, address, count);
+	}
+
+	private int handleWrite(int idx, int address, int count) {
+		if (address < 0 || count < 0)
+			return -1;
+		OpenFile openFile = descriptors.get(idx);
+		if (openFile == null)
+			return -1;
+
+		return writeFromMemory(openFile, address, count);
+	}
+
+	private int handleLseek(int idx, int offset, int whence) {
+		OpenFile openFile = descriptors.get(idx);
+		// streams have no position to move
+		if (openFile == null || openFile.tell() < 0)
+			return -1;
+
+		int base;
+		switch (whence) {
+		case SEEK_SET:
+			base = 0;
+			break;
+		case SEEK_CUR:
+			base = openFile.tell();
+			break;
+		case SEEK_END:
+			base = openFile.length();
+			if (base < 0)
 				return -1;
+			break;
+		default:
+			return -1;
+		}
 
-			// It is an error if some address are not valid.
-			int wrote = writeVirtualMemory(address, BUFFER, 0, got);
+		long position = (long) base + offset;
+		if (position < 0 || position > Integer.MAX_VALUE)
+			return -1;
+		openFile.seek((int) position);
+		return (int) position;
+	}
+
+	private int handlePread(int idx, int address, int count, int position) {
+		if (address < 0 || count < 0 || position < 0)
+			return -1;
+		OpenFile openFile = descriptors.get(idx);
+		if (openFile == null || openFile.tell() < 0)
+			return -1;
+
+		return readToMemory(openFile, position, address, count);
+	}
+
+	private int handlePwrite(int idx, int address, int count, int position) {
+		if (address < 0 || count < 0 || position < 0)
+			return -1;
+		OpenFile openFile = descriptors.get(idx);
+		if (openFile == null || openFile.tell() < 0)
+			return -1;
+
+		return writeFromMemory(openFile, position, address, count);
+	}
+
+	private int handleCopyfile(int srcIdx, int dstIdx, int count) {
+		OpenFile src = descriptors.get(srcIdx), dst = descriptors.get(dstIdx);
+		if (src == null || dst == null || count < 0)
+			return -1;
+
+		// the data never passes through user memory
+		byte[] buffer = new byte[Math.min(count, COPY_CHUNK)];
+		int total = 0;
+		while (total < count) {
+			int wanted = Math.min(count - total, buffer.length);
+			int got = src.read(buffer, 0, wanted);
+			if (got <= 0) {
+				if (got < 0 && total == 0)
+					return -1;
+				break;
+			}
+
+			int wrote = dst.write(buffer, 0, got);
+			if (wrote < 0 && total == 0)
+				return -1;
+			if (wrote > 0)
+				total += wrote;
 			if (wrote < got)
+				break;
+
+			// a short read is the end of a file, or all a stream has for
+			// now; reading again could block a pipe until it fills
+			if (got < wanted)
+				break;
+		}
+
+		// only once the data is written, so that nothing read from the file
+		// in the meantime is cached as its new contents
+		if (dst.getFileSystem() == UserKernel.fileSystem)
+			fileChanged(dst.getName());
+		return total;
+	}
+
+	/**
+	 * Read up to <i>count</i> bytes from a file, at its current position,
+	 * straight into this process's memory at <i>address</i>.
+	 *
+	 * @return the number of bytes read, or -1 on error.
+	 */
+	private int readToMemory(OpenFile openFile, int address, int count) {
+		return readToMemory(openFile, -1, address, count);
+	}
+
+	/**
+	 * Read up to <i>count</i> bytes from a file straight into this process's
+	 * memory at <i>address</i>, starting at byte <i>position</i> of the file,
+	 * or at its current position (which is advanced) if <i>position</i> is
+	 * negative.
+	 *
+	 * @return the number of bytes read, or -1 on error.
+	 */
+	private int readToMemory(OpenFile openFile, int position, int address,
+			int count) {
+		return transferMemory(openFile, position, address, count, true);
+	}
+
+	/**
+	 * Write <i>count</i> bytes from this process's memory at <i>address</i>
+	 * straight to a file, at its current position.
+	 *
+	 * @return the number of bytes written, or -1 on error.
+	 */
+	private int writeFromMemory(OpenFile openFile, int address, int count) {
+		return writeFromMemory(openFile, -1, address, count);
+	}
+
+	/**
+	 * Write <i>count</i> bytes from this process's memory at <i>address</i>
+	 * straight to a file, starting at byte <i>position</i> of the file, or at
+	 * its current position (which is advanced) if <i>position</i> is negative.
+	 *
+	 * @return the number of bytes written, or -1 on error.
+	 */
+	private int writeFromMemory(OpenFile openFile, int position, int address,
+			int count) {
+		int total = transferMemory(openFile, position, address, count, false);
+
+		// only once the data is written, so that nothing read from the file
+		// in the meantime is cached as its new contents
+		if (openFile.getFileSystem() == UserKernel.fileSystem)
+			fileChanged(openFile.getName());
+		return total;
+	}
+
+	/**
+	 * Move up to <i>count</i> bytes between a file and this process's memory
+	 * at <i>address</i>, a chunk at a time. The pages of each chunk are only
+	 * faulted in and pinned just before it is transferred, so a read that
+	 * returns little data touches little memory. Chunks end on a page
+	 * boundary, and grow from one page up to <tt>TRANSFER_CHUNK</tt> bytes as
+	 * long as the file keeps up.
+	 *
+	 * @param position
+	 *            the byte of the file to start at, or -1 for its current
+	 *            position.
+	 * @param toMemory
+	 *            <tt>true</tt> to read from the file, <tt>false</tt> to write
+	 *            to it.
+	 * @return the number of bytes transferred before the file fell short or
+	 *         a page could not be mapped, or -1 if the file failed or not even
+	 *         the first page could be mapped.
+	 */
+	private int transferMemory(OpenFile openFile, int position, int address,
+			int count, boolean toMemory) {
+		byte[] memory = Machine.processor().getMemory();
+		int total = 0;
+		int chunk = pageSize;
+		while (total < count) {
+			int vaddr = address + total;
+			int length = Math.min(count - total, chunk - vaddr % pageSize);
+			List<int[]> ranges = resolveVirtualMemory(vaddr, length, toMemory);
+			try {
+				int resolved = 0;
+				for (int[] range : ranges) {
+					int moved;
+					if (position < 0)
+						moved = toMemory ? openFile.read(memory, range[0],
+								range[1]) : openFile.write(memory, range[0],
+								range[1]);
+					else
+						moved = toMemory ? openFile.read(position + total,
+								memory, range[0], range[1]) : openFile.write(
+								position + total, memory, range[0], range[1]);
+					if (moved < 0)
+						return -1;
+					total += moved;
+					if (moved < range[1])
+						return total;
+					resolved += moved;
+				}
+
+				// It is an error if not even the first address is valid
+				if (resolved < length)
+					return total == 0 ? -1 : total;
+			} finally {
+				unpinVirtualMemory(ranges);
+			}
+
+			chunk = Math.min(chunk * 2, TRANSFER_CHUNK);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Read the <tt>struct iovec</tt> array at <i>address</i> into
+	 * <tt>{base, length}</tt> pairs.
+	 *
+	 * @return the buffers, or <tt>null</tt> if the array is invalid.
+	 */
+	private int[][] readIovecs(int address, int iovcnt) {
+		if (address < 0 || iovcnt < 0 || iovcnt > MAX_IOVCNT)
+			return null;
+
+		byte[] bytes = new byte[iovcnt * IOVEC_SIZE];
+		if (readVirtualMemory(address, bytes) < bytes.length)
+			return null;
+
+		int[][] iov = new int[iovcnt][];
+		long total = 0;
+		for (int i = 0; i < iovcnt; i++) {
+			int base = Lib.bytesToInt(bytes, i * IOVEC_SIZE);
+			int length = Lib.bytesToInt(bytes, i * IOVEC_SIZE + 4);
+			if (base < 0 || length < 0)
+				return null;
+			total += length;
+			iov[i] = new int[] { base, length };
+		}
+
+		// the total has to fit in the return value
+		if (total > Integer.MAX_VALUE)
+			return null;
+
+		return iov;
+	}
+
+	private int handleReadv(int idx, int address, int iovcnt) {
+		OpenFile openFile = descriptors.get(idx);
+		if (openFile == null)
+			return -1;
+		int[][] iov = readIovecs(address, iovcnt);
+		if (iov == null)
+			return -1;
+
+		int total = 0;
+		for (int i = 0; i < iov.length; i++) {
+			int got = readToMemory(openFile, iov[i][0], iov[i][1]);
+			if (got < 0)
 				return -1;
 			total += got;
-			address += got;
 
-			count -= got;
-			if (got < read)
+			// a short read means there is nothing more for now
+			if (got < iov[i][1])
 				break;
 		}
 
 		return total;
 	}
 
-	private int handleWrite(int idx, int address, int count) {
-		if (idx < 0 || idx >= fileList.length || address < 0 || count < 0)
-			return -1;
-		OpenFile openFile = fileList[idx];
+	private int handleWritev(int idx, int address, int iovcnt) {
+		OpenFile openFile = descriptors.get(idx);
 		if (openFile == null)
 			return -1;
+		int[][] iov = readIovecs(address, iovcnt);
+		if (iov == null)
+			return -1;
+
 		int total = 0;
-		byte[] BUFFER = new byte[MAX_BUFFER_SIZE];
-		while (count > 0) {
-			int read = Math.min(count, MAX_BUFFER_SIZE);
-			int got = readVirtualMemory(address, BUFFER, 0, read);
+		for (int i = 0; i < iov.length; i++) {
+			int wrote = writeFromMemory(openFile, iov[i][0], iov[i][1]);
+			if (wrote < 0)
+				return -1;
+			total += wrote;
+			if (wrote < iov[i][1])
+				break;
+		}
+
+		return total;
+	}
+
+	private int handleRingSetup(int address, int entries, int flags) {
+		if (ring != null || address < 0
+				|| !SubmissionRing.isValidSize(entries))
+			return -1;
+
+		// the whole ring must be writable
+		int size = SubmissionRing.size(entries);
+		List<int[]> ranges = resolveVirtualMemory(address, size, true);
+		int resolved = 0;
+		for (int[] range : ranges)
+			resolved += range[1];
+		unpinVirtualMemory(ranges);
+		if (resolved < size)
+			return -1;
+
+		byte[] header = new byte[24];
+		Lib.bytesFromInt(header, 16, entries);
+		Lib.bytesFromInt(header, 20, flags);
+		writeVirtualMemory(address, header);
+
+		ring = new SubmissionRing(this, address, entries, flags);
+		return 0;
+	}
+
+	private int handleRingEnter() {
+		if (ring == null)
+			return -1;
+
+		return ring.submit();
+	}
+
+	/**
+	 * Return whether this process is exiting, so that its threads should stop
+	 * waiting in the kernel.
+	 *
+	 * @return <tt>true</tt> once a thread has called <tt>exit()</tt>.
+	 */
+	boolean isExiting() {
+		return exited;
+	}
+
+	/**
+	 * Run one request taken from this process's submission ring, exactly as
+	 * the corresponding syscall would.
+	 *
+	 * @return the result the syscall would have returned.
+	 */
+	int handleRingOp(int op, int fd, int address, int count) {
+		switch (op) {
+		case SubmissionRing.opNop:
+			return 0;
+		case SubmissionRing.opRead:
+			return handleRead(fd, address, count);
+		case SubmissionRing.opWrite:
+			return handleWrite(fd, address, count);
+		case SubmissionRing.opOpen:
+			return handleOpen(address);
+		case SubmissionRing.opClose:
+			return handleClose(fd);
+		case SubmissionRing.opCreate:
+			return handleCreate(address);
+		default:
+			return -1;
+		}
+	}
+
+	private int handleAsync(int idx, final int address, final int count,
+			final boolean write) {
+		if (address < 0 || count < 0)
+			return -1;
+		final OpenFile openFile = descriptors.get(idx);
+		if (openFile == null || asyncRequests.size() >= MAX_ASYNC_REQUESTS)
+			return -1;
+
+		AsyncIO.Request request = UserKernel.asyncIO
+				.submit(new Callable<Integer>() {
+					public Integer call() {
+						if (write)
+							return writeFromMemory(openFile, address, count);
+						else
+							return readToMemory(openFile, address, count);
+					}
+				});
+		if (request == null)
+			return -1;
 
-			// It is an error if we cannot read enough bytes from address
-			if (got < read)
+		int id = nextAsyncId++;
+		asyncRequests.put(id, request);
+		return id;
+	}
+
+	private int handleAwait(int id, int statusAddr, boolean block) {
+		AsyncIO.Request request = asyncRequests.get(id);
+		if (request == null)
+			return -1;
+		if (!block && !request.isDone())
+			return 0;
+
+		int result = request.join();
+		asyncRequests.remove(id);
+
+		// struct aio_status: result, latency, queue time
+		if (statusAddr != 0) {
+			byte[] status = new byte[12];
+			Lib.bytesFromInt(status, 0, result);
+			Lib.bytesFromInt(status, 4, (int) request.getLatency());
+			Lib.bytesFromInt(status, 8, (int) request.getQueueTime());
+			if (writeVirtualMemory(statusAddr, status) < status.length)
 				return -1;
-			int wrote = openFile.write(BUFFER, 0, read);
-			if (wrote < 0) {
+		}
+
+		return block ? 0 : 1;
+	}
+
+	private int handleTrace(int mode) {
+		switch (mode) {
+		case TRACE_OFF:
+			tracing = false;
+			return 0;
+		case TRACE_ON:
+			if (tracer == null)
+				tracer = new SyscallTracer(UserKernel.traceBufferSize);
+			tracing = true;
+			return 0;
+		case TRACE_PRINT:
+			if (tracer == null)
 				return -1;
+			tracer.printCalls(processId);
+			tracer.printSummary(processId);
+			return 0;
+		default:
+			return -1;
+		}
+	}
+
+	private int handleSbrk(int increment) {
+		int oldBreak = programBreak;
+		long newBreak = (long) programBreak + increment;
+		if (newBreak < heapStart)
+			return -1;
+
+		// pages are only backed by frames once touched, so overcommit, but
+		// never promise more than physical memory could ever hold
+		long newPages = (newBreak + pageSize - 1) / pageSize;
+		if (newPages > mappingVPN)
+			return -1;
+
+		resizeAddressSpace((int) newPages);
+		programBreak = (int) newBreak;
+		return oldBreak;
+	}
+
+	/**
+	 * Grow or shrink this process's address space to <i>pages</i> pages. New
+	 * pages are left invalid to be filled with zeros when first touched; the
+	 * frames of pages removed are freed, though a frame that another thread
+	 * is still reading or writing into is only reused once it is done.
+	 *
+	 * @param pages
+	 *            the new number of pages.
+	 */
+	private void resizeAddressSpace(int pages) {
+		if (pages < numPages) {
+			int[] frames = new int[numPages - pages];
+			int count = 0;
+			for (int vpn = pages; vpn < numPages; vpn++) {
+				if (pageTable[vpn].valid)
+					frames[count++] = pageTable[vpn].ppn;
+				pageTable[vpn] = null;
 			}
-			total += got;
-			address += got;
+			UserKernel.frameAllocator.free(frames, 0, count);
+		}
+
+		// shared memory may already have made the table longer
+		if (pages > pageTable.length)
+			pageTable = Arrays.copyOf(pageTable, pages);
+		for (int vpn = numPages; vpn < pages; vpn++)
+			pageTable[vpn] = new TranslationEntry(vpn, 0, false, false, false,
+					false);
+
+		numPages = pages;
+		Machine.processor().setPageTable(pageTable);
+	}
+
+	private int handleShmget(int key, int size) {
+		if (size <= 0)
+			return -1;
+
+		SharedMemory.Segment segment = UserKernel.sharedMemory.get(key,
+				(int) (((long) size + pageSize - 1) / pageSize));
+		if (segment == null)
+			return -1;
+
+		// a process holds one reference however often it looks a segment up
+		if (sharedSegments.containsKey(segment.getId()))
+			UserKernel.sharedMemory.release(segment);
+		else
+			sharedSegments.put(segment.getId(), segment);
+
+		return segment.getId();
+	}
+
+	private int handleShmat(int id) {
+		SharedMemory.Segment segment = sharedSegments.get(id);
+		if (segment == null)
+			return -1;
+
+		int first = findMappingRange(segment.getNumPages());
+		if (first == -1)
+			return -1;
+
+		for (int i = 0; i < segment.getNumPages(); i++)
+			pageTable[first + i] = new TranslationEntry(first + i, segment
+					.getFrame(i), true, false, false, false);
+
+		UserKernel.sharedMemory.reference(segment);
+		sharedMappings.put(first, segment);
+		return first * pageSize;
+	}
+
+	/**
+	 * Find the lowest run of <i>n</i> unmapped pages above the heap's limit,
+	 * making the page table longer if needed.
+	 *
+	 * @param n
+	 *            the number of pages.
+	 * @return the first page of the run, or -1 if it would not fit in the
+	 *         address space.
+	 */
+	private int findMappingRange(int n) {
+		int first = mappingVPN;
+		for (int vpn = first; vpn < first + n && vpn < pageTable.length; vpn++) {
+			if (pageTable[vpn] != null)
+				first = vpn + 1;
+		}
+		if ((long) (first + n) * pageSize > Integer.MAX_VALUE)
+			return -1;
+
+		if (first + n > pageTable.length) {
+			pageTable = Arrays.copyOf(pageTable, first + n);
+			Machine.processor().setPageTable(pageTable);
+		}
+		return first;
+	}
+
+	private int handleThreadCreate(int pc, int arg) {
+		if (pc < 0 || threads.size() >= MAX_THREADS)
+			return -1;
+
+		// the stack is filled with zeros as it is touched, like the heap
+		int n = UserKernel.maxStackPages;
+		int first = findMappingRange(n);
+		if (first == -1)
+			return -1;
+		for (int vpn = first; vpn < first + n; vpn++)
+			pageTable[vpn] = new TranslationEntry(vpn, 0, false, false, false,
+					false);
+
+		int id = nextThreadId++;
+		UThread t = new UThread(this, pc, (first + n) * pageSize, arg);
+		threads.put(id, t);
+		threadStacks.put(id, first);
+		t.setName("process " + processId + " thread " + id).fork();
+		return id;
+	}
+
+	private int handleThreadExit(int status) {
+		KThread current = KThread.currentThread();
+
+		// the main thread waits for the others, then the process exits
+		if (current == thread) {
+			while (!threads.isEmpty() && !exited)
+				threads.values().iterator().next().join();
+			return handleExit(status);
+		}
+
+		int id = -1;
+		for (Map.Entry<Integer, UThread> e : threads.entrySet()) {
+			if (e.getValue() == current)
+				id = e.getKey();
+		}
+		if (id == -1)
+			return -1;
+
+		int first = threadStacks.remove(id);
+		int[] frames = new int[UserKernel.maxStackPages];
+		int count = 0;
+		for (int vpn = first; vpn < first + UserKernel.maxStackPages; vpn++) {
+			if (pageTable[vpn].valid)
+				frames[count++] = pageTable[vpn].ppn;
+			pageTable[vpn] = null;
+		}
+		// a frame another thread is still reading or writing into stays
+		// pinned until that thread is done with it
+		UserKernel.frameAllocator.free(frames, 0, count);
+
+		threads.remove(id);
+		threadStatus.put(id, status);
+		UThread.finish();
+
+		Lib.assertNotReached();
+		return -1;
+	}
+
+	private int handleThreadJoin(int id, int statusAddr) {
+		UThread t = threads.get(id);
+		if (t == KThread.currentThread())
+			return -1;
+		if (t != null)
+			t.join();
+
+		Integer status = threadStatus.remove(id);
+		if (status == null)
+			return -1;
+
+		if (statusAddr != 0
+				&& writeVirtualMemory(statusAddr, Lib.bytesFromInt(status)) < 4)
+			return -1;
+		return 0;
+	}
+
+	private int handleShmdt(int address) {
+		if (address < 0 || address % pageSize != 0)
+			return -1;
+
+		int first = address / pageSize;
+		SharedMemory.Segment segment = sharedMappings.remove(first);
+		if (segment == null)
+			return -1;
+
+		for (int i = 0; i < segment.getNumPages(); i++)
+			pageTable[first + i] = null;
+		UserKernel.sharedMemory.release(segment);
+		return 0;
+	}
+
+	private int handleFutex(int address, int op, int value) {
+		if (address < 0 || address % 4 != 0)
+			return -1;
+
+		switch (op) {
+		case FUTEX_WAIT:
+			return UserKernel.futexes.wait(this, address, value) ? 0 : -1;
+		case FUTEX_WAKE:
+			return UserKernel.futexes.wake(this, address, value);
+		default:
+			return -1;
+		}
+	}
+
+	// unmap every shared memory segment and drop this process's references
+	private void releaseSharedMemory() {
+		for (int first : new ArrayList<Integer>(sharedMappings.keySet()))
+			handleShmdt(first * pageSize);
+		for (SharedMemory.Segment segment : sharedSegments.values())
+			UserKernel.sharedMemory.release(segment);
+		sharedSegments.clear();
+	}
+
+	private int handlePoll(int address, int nfds, int timeout) {
+		if (address < 0 || nfds < 0 || nfds > descriptors.getLimit())
+			return -1;
+
+		byte[] fds = new byte[nfds * POLLFD_SIZE];
+		if (readVirtualMemory(address, fds) < fds.length)
+			return -1;
+
+		// register before checking, so no change is missed in between
+		Poller poller = new Poller();
+		OpenFile[] files = new OpenFile[nfds];
+		for (int i = 0; i < nfds; i++) {
+			int fd = Lib.bytesToInt(fds, i * POLLFD_SIZE);
+			files[i] = descriptors.get(fd);
+			if (files[i] instanceof Pollable)
+				((Pollable) files[i]).addPoller(poller);
+		}
 
-			count -= got;
-			if (wrote < read)
+		long deadline = Machine.timer().getTime() + timeout;
+		int ready;
+		while (true) {
+			ready = 0;
+			for (int i = 0; i < nfds; i++) {
+				int fd = Lib.bytesToInt(fds, i * POLLFD_SIZE);
+				int events = Lib.bytesToShort(fds, i * POLLFD_SIZE + 4);
+				int revents;
+				if (fd < 0)
+					revents = 0;
+				else if (files[i] == null)
+					revents = Poller.pollNval;
+				else if (files[i] instanceof Pollable)
+					revents = ((Pollable) files[i]).getReadiness()
+							& (events | Poller.pollHup);
+				else
+					revents = (Poller.pollIn | Poller.pollOut) & events;
+
+				Lib.bytesFromShort(fds, i * POLLFD_SIZE + 6, (short) revents);
+				if (revents != 0)
+					ready++;
+			}
+
+			long now = Machine.timer().getTime();
+			if (ready > 0 || timeout == 0 || (timeout > 0 && now >= deadline)
+					|| exited)
 				break;
+			poller.await(timeout < 0 ? Long.MAX_VALUE / 2 : deadline - now);
 		}
 
-		return total;
+		for (int i = 0; i < nfds; i++) {
+			if (files[i] instanceof Pollable)
+				((Pollable) files[i]).removePoller(poller);
+		}
+
+		if (writeVirtualMemory(address, fds) < fds.length)
+			return -1;
+		return ready;
+	}
+
+	private int handleSleep(int ticks) {
+		if (ticks < 0)
+			return -1;
+
+		ThreadedKernel.alarm.waitUntil(ticks);
+		return 0;
+	}
+
+	private int handleGettime() {
+		// the low 32 bits; differences stay right across wraparound
+		return (int) Machine.timer().getTime();
 	}
 
 	private int handleUnlink(int address) {
@@ -607,15 +1593,48 @@ public class UserProcess {
 		if (file == null)
 			return -1;
 
-		if (UserKernel.fileManager.unlink(file))
-			return 0;
-		return -1;
+		if (!UserKernel.fileManager.unlink(file))
+			return -1;
+		fileChanged(file);
+		return 0;
 	}
 
 	private int handleExit(int status) {
+		// only the first thread to exit tears the process down; the others
+		// finish on their next trap
+		if (exited)
+			UThread.finish();
+		exited = true;
+		// wake the other threads sleeping in futex(), so they can finish
+		UserKernel.futexes.remove(this);
+
+		// close every file first, so that nothing below waits on a pipe,
+		// and a process at the other end of one sees it closed; our other
+		// threads blocked on a pipe give up and finish
+		interruptPipes();
+		closeDescriptors();
+		if (ring != null)
+			ring.shutdown();
+		// requests that have not started never will; those already running
+		// keep the frames they copy to or from pinned, so nothing waits for
+		// them
+		for (AsyncIO.Request request : asyncRequests.values())
+			request.cancel();
+		asyncRequests.clear();
+		// a fault still reading the executable keeps it open, and closes it
+		// once done; no new fault starts now that we are exiting
+		completeImage();
+		if (tracer != null)
+			tracer.printSummary(processId);
+
 		Machine.interrupt().disable();
 		// disable here ... to make life easier <_<
+		// frames that other threads are still reading or writing into stay
+		// pinned, and are only freed once those threads are done with them
 		unloadSections();
+		// any other thread faults on its next instruction, including those
+		// woken from futex()
+		pageTable = new TranslationEntry[0];
 
 		for (UserProcess child : childList) {
 			child.parent = null;
@@ -693,18 +1712,30 @@ public class UserProcess {
 		UserProcess child = UserProcess.newUserProcess();
 		// Set the child's parent pointer first to avoid race condition
 		child.parent = this;
+		inheritDescriptors(child);
 		if (child.execute(file, arguments)) {
 			childList.add(child);
 			return child.processId;
 		}
 
+		child.closeDescriptors();
 		return -1;
 	}
 
+	// add each new syscall's name to SyscallTracer too
 	private static final int syscallHalt = 0, syscallExit = 1, syscallExec = 2,
 			syscallJoin = 3, syscallCreate = 4, syscallOpen = 5,
 			syscallRead = 6, syscallWrite = 7, syscallClose = 8,
-			syscallUnlink = 9;
+			syscallUnlink = 9, syscallReadv = 13, syscallWritev = 14,
+			syscallPipe = 15, syscallRingSetup = 16, syscallRingEnter = 17,
+			syscallAread = 18, syscallAwrite = 19, syscallAwait = 20,
+			syscallApoll = 21, syscallTrace = 22, syscallSbrk = 23,
+			syscallShmget = 24, syscallShmat = 25, syscallShmdt = 26,
+			syscallFutex = 27, syscallThreadCreate = 28,
+			syscallThreadExit = 29, syscallThreadJoin = 30, syscallSleep = 31,
+			syscallGettime = 32, syscallPoll = 33, syscallDup = 34,
+			syscallDup2 = 35, syscallLseek = 36, syscallPread = 37,
+			syscallPwrite = 38, syscallCopyfile = 39;
 
 	/**
 	 * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -758,6 +1789,117 @@ public class UserProcess {
 	 * <td>9</td>
 	 * <td><tt>int  unlink(char *name);</tt></td>
 	 * </tr>
+	 * <tr>
+	 * <td>13</td>
+	 * <td><tt>int  readv(int fd, struct iovec *iov, int iovcnt);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>14</td>
+	 * <td><tt>int  writev(int fd, struct iovec *iov, int iovcnt);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>15</td>
+	 * <td><tt>int  pipe(int fds[2]);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>16</td>
+	 * <td><tt>int  ring_setup(struct io_ring *ring, int entries, int flags);
+	 * 								</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>17</td>
+	 * <td><tt>int  ring_enter();</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>18</td>
+	 * <td><tt>int  aread(int fd, char *buffer, int size);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>19</td>
+	 * <td><tt>int  awrite(int fd, char *buffer, int size);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>20</td>
+	 * <td><tt>int  await(int id, struct aio_status *status);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>21</td>
+	 * <td><tt>int  apoll(int id, struct aio_status *status);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>22</td>
+	 * <td><tt>int  trace(int mode);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>23</td>
+	 * <td><tt>void *sbrk(int increment);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>24</td>
+	 * <td><tt>int  shmget(int key, int size);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>25</td>
+	 * <td><tt>void *shmat(int id);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>26</td>
+	 * <td><tt>int  shmdt(void *address);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>27</td>
+	 * <td><tt>int  futex(int *address, int op, int value);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>28</td>
+	 * <td><tt>int  thread_create(void (*func)(void *), void *arg);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>29</td>
+	 * <td><tt>void thread_exit(int status);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>30</td>
+	 * <td><tt>int  thread_join(int id, int *status);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>31</td>
+	 * <td><tt>int  sleep(int ticks);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>32</td>
+	 * <td><tt>int  gettime();</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>33</td>
+	 * <td><tt>int  poll(struct pollfd *fds, int nfds, int timeout);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>34</td>
+	 * <td><tt>int  dup(int fd);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>35</td>
+	 * <td><tt>int  dup2(int fd, int newfd);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>36</td>
+	 * <td><tt>int  lseek(int fd, int offset, int whence);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>37</td>
+	 * <td><tt>int  pread(int fd, void *buffer, int count, int offset);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>38</td>
+	 * <td><tt>int  pwrite(int fd, void *buffer, int count, int offset);</tt></td>
+	 * </tr>
+	 * <tr>
+	 * <td>39</td>
+	 * <td><tt>int  copyfile(int srcFd, int dstFd, int count);</tt></td>
+	 * </tr>
 	 * </table>
 	 * 
 	 * @param syscall
@@ -773,6 +1915,18 @@ public class UserProcess {
 	 * @return the value to be returned to the user.
 	 */
 	public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+		if (tracer == null || !tracing)
+			return dispatchSyscall(syscall, a0, a1, a2, a3);
+
+		long entry = Machine.timer().getTime();
+		int result = dispatchSyscall(syscall, a0, a1, a2, a3);
+		if (tracing)
+			tracer.record(syscall, a0, a1, a2, a3, result, entry, Machine
+					.timer().getTime());
+		return result;
+	}
+
+	private int dispatchSyscall(int syscall, int a0, int a1, int a2, int a3) {
 		switch (syscall) {
 		case syscallHalt:
 			return handleHalt();
@@ -794,6 +1948,60 @@ public class UserProcess {
 			return handleClose(a0);
 		case syscallUnlink:
 			return handleUnlink(a0);
+		case syscallReadv:
+			return handleReadv(a0, a1, a2);
+		case syscallWritev:
+			return handleWritev(a0, a1, a2);
+		case syscallPipe:
+			return handlePipe(a0);
+		case syscallRingSetup:
+			return handleRingSetup(a0, a1, a2);
+		case syscallRingEnter:
+			return handleRingEnter();
+		case syscallAread:
+			return handleAsync(a0, a1, a2, false);
+		case syscallAwrite:
+			return handleAsync(a0, a1, a2, true);
+		case syscallAwait:
+			return handleAwait(a0, a1, true);
+		case syscallApoll:
+			return handleAwait(a0, a1, false);
+		case syscallTrace:
+			return handleTrace(a0);
+		case syscallSbrk:
+			return handleSbrk(a0);
+		case syscallShmget:
+			return handleShmget(a0, a1);
+		case syscallShmat:
+			return handleShmat(a0);
+		case syscallShmdt:
+			return handleShmdt(a0);
+		case syscallFutex:
+			return handleFutex(a0, a1, a2);
+		case syscallThreadCreate:
+			return handleThreadCreate(a0, a1);
+		case syscallThreadExit:
+			return handleThreadExit(a0);
+		case syscallThreadJoin:
+			return handleThreadJoin(a0, a1);
+		case syscallSleep:
+			return handleSleep(a0);
+		case syscallGettime:
+			return handleGettime();
+		case syscallPoll:
+			return handlePoll(a0, a1, a2);
+		case syscallDup:
+			return handleDup(a0);
+		case syscallDup2:
+			return handleDup2(a0, a1);
+		case syscallLseek:
+			return handleLseek(a0, a1, a2);
+		case syscallPread:
+			return handlePread(a0, a1, a2, a3);
+		case syscallPwrite:
+			return handlePwrite(a0, a1, a2, a3);
+		case syscallCopyfile:
+			return handleCopyfile(a0, a1, a2);
 		default:
 			Lib.debug(dbgProcess, "Unknown syscall " + syscall);
 			handleException(UNKNOWN_SYSTEM_CALL);
@@ -813,6 +2021,10 @@ public class UserProcess {
 	public void handleException(int cause) {
 		Processor processor = Machine.processor();
 
+		// another thread has exited the process
+		if (exited)
+			UThread.finish();
+
 		switch (cause) {
 		case Processor.exceptionSyscall:
 			int result = handleSyscall(processor.readRegister(Processor.regV0),
@@ -823,6 +2035,13 @@ public class UserProcess {
 			processor.writeRegister(Processor.regV0, result);
 			processor.advancePC();
 			break;
+		case Processor.exceptionPageFault:
+			int vaddr = processor.readRegister(Processor.regBadVAddr);
+			if (!handlePageFault(Processor.pageFromAddress(vaddr))) {
+				handleExit(UNEXPECTED_EXCEPTION);
+				Lib.assertNotReached("Unexpected exception");
+			}
+			break;
 		case UNKNOWN_SYSTEM_CALL:
 			// ignore it
 			break;
@@ -836,13 +2055,21 @@ public class UserProcess {
 
 	/** The program being run by this process. */
 	protected Coff coff;
+	/** The executable's section table and contents. */
+	protected ExecutableCache.Image image;
+	/**
+	 * The threads reading a page of the executable right now, and whether it
+	 * should be closed once they are done.
+	 */
+	private int executableReaders = 0;
+	private boolean executableReleased = false;
 
 	/** This process's page table. */
 	protected TranslationEntry[] pageTable;
 	/** The number of contiguous pages occupied by the program. */
 	protected int numPages;
 
-	private OpenFile[] fileList;
+	private DescriptorTable descriptors;
 	private int processId;
 
 	private LinkedList<UserProcess> childList = new LinkedList<UserProcess>();
@@ -850,17 +2077,62 @@ public class UserProcess {
 	private Map<Integer, Integer> exitStatusMap = new HashMap<Integer, Integer>();
 	private Lock mapLock = new Lock();
 	private UThread thread;
-
-	/** The number of pages in the program's stack. */
-	protected final int stackPages = 8;
+	/**
+	 * Threads made by thread_create() that are still running, and the first
+	 * pages of their stacks, by thread id; then their exit statuses.
+	 */
+	private Map<Integer, UThread> threads = new HashMap<Integer, UThread>();
+	private Map<Integer, Integer> threadStacks = new HashMap<Integer, Integer>();
+	private Map<Integer, Integer> threadStatus = new HashMap<Integer, Integer>();
+	private int nextThreadId = 1;
+	/** Set once a thread has called exit(), so the others finish. */
+	private boolean exited = false;
+	private SubmissionRing ring = null;
+	private Map<Integer, AsyncIO.Request> asyncRequests = new HashMap<Integer, AsyncIO.Request>();
+	private int nextAsyncId = 1;
+	/** Records this process's syscalls, once tracing has been turned on. */
+	private SyscallTracer tracer = null;
+	private boolean tracing = false;
 
 	private int initialPC, initialSP;
+	/** The lowest page the stack may grow to, and its lowest page so far. */
+	private int stackLimitVPN, stackVPN;
+	/** The first byte of the heap, and the first byte past its end. */
+	private int heapStart, programBreak;
+	/** The lowest page shared memory and thread stacks are mapped at. */
+	private int mappingVPN;
+	/** Shared memory segments looked up, by id, and mapped, by first page. */
+	private Map<Integer, SharedMemory.Segment> sharedSegments = new HashMap<Integer, SharedMemory.Segment>();
+	private Map<Integer, SharedMemory.Segment> sharedMappings = new HashMap<Integer, SharedMemory.Segment>();
+	/** The executable file, identifying its shared pages. */
+	private String executableName;
+	private int executableLength, executableVersion;
 	private int argc, argv;
 
 	private static final int pageSize = Processor.pageSize;
 	private static final char dbgProcess = 'a';
-	private static final int MAX_BUFFER_SIZE = 1 << 12;
-	private static final int MAX_FILE_OPEN = 256;
+	/** How many pages below the stack a fault may be and still grow it. */
+	private static final int MAX_STACK_GROWTH = 32;
+	/** The most asynchronous requests a process may have outstanding. */
+	private static final int MAX_ASYNC_REQUESTS = 64;
+	/** The most buffers a single readv() or writev() may name. */
+	private static final int MAX_IOVCNT = 1024;
+	/** The most bytes copyfile() moves between files at a time. */
+	private static final int COPY_CHUNK = 16 * pageSize;
+	/** The most bytes read() and write() pin at a time. */
+	private static final int TRANSFER_CHUNK = 16 * pageSize;
+	/** <tt>sizeof(struct iovec)</tt> in user programs. */
+	private static final int IOVEC_SIZE = 8;
+	/** <tt>sizeof(struct pollfd)</tt> in user programs. */
+	private static final int POLLFD_SIZE = 8;
+	/** Modes of the trace() syscall. */
+	private static final int TRACE_OFF = 0, TRACE_ON = 1, TRACE_PRINT = 2;
+	/** The most threads a process may create beyond its first. */
+	private static final int MAX_THREADS = 64;
+	/** Operations of the futex() syscall. */
+	private static final int FUTEX_WAIT = 0, FUTEX_WAKE = 1;
+	/** Where lseek() measures its offset from. */
+	private static final int SEEK_SET = 0, SEEK_CUR = 1, SEEK_END = 2;
 
 	private static final int UNEXPECTED_EXCEPTION = -1234;
 	private static final int UNKNOWN_SYSTEM_CALL = -1235;